@@ -0,0 +1,902 @@
+package org.geneontology.reasoner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.semanticweb.owlapi.model.AxiomType;
+import org.semanticweb.owlapi.model.ClassExpressionType;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLDisjointClassesAxiom;
+import org.semanticweb.owlapi.model.OWLEquivalentClassesAxiom;
+import org.semanticweb.owlapi.model.OWLEquivalentObjectPropertiesAxiom;
+import org.semanticweb.owlapi.model.OWLObjectIntersectionOf;
+import org.semanticweb.owlapi.model.OWLObjectProperty;
+import org.semanticweb.owlapi.model.OWLObjectPropertyDomainAxiom;
+import org.semanticweb.owlapi.model.OWLObjectPropertyExpression;
+import org.semanticweb.owlapi.model.OWLObjectSomeValuesFrom;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLSubClassOfAxiom;
+import org.semanticweb.owlapi.model.OWLSubObjectPropertyOfAxiom;
+import org.semanticweb.owlapi.model.OWLSubPropertyChainOfAxiom;
+import org.semanticweb.owlapi.model.OWLTransitiveObjectPropertyAxiom;
+import org.semanticweb.owlapi.model.parameters.Imports;
+import org.semanticweb.owlapi.profiles.OWL2ELProfile;
+import org.semanticweb.owlapi.reasoner.ClassExpressionNotInProfileException;
+import org.semanticweb.owlapi.reasoner.ReasonerInterruptedException;
+import org.semanticweb.owlapi.reasoner.TimeOutException;
+
+/**
+ * Completion rule based saturation for the EL fragment of OWL.
+ *
+ * The axioms of the ontology (including imports) are normalized into rules
+ * over dense int ids for concepts and roles. Supported are class
+ * expressions built from named classes, intersections and existential
+ * restrictions over named properties, as well as sub properties, transitive
+ * properties and property chains. All other axioms are ignored, see
+ * {@link #getIgnoredAxiomCount()}. Most of them are ignored by Elk as well,
+ * except for object property ranges, reflexive properties and the
+ * constructors ObjectHasValue, ObjectOneOf, ObjectHasSelf and DataHasValue,
+ * see {@link #getUnsupportedAxiomCount()}.
+ *
+ * The saturation computes for each node X the set S(X) of subsuming
+ * concepts and the links (X, r, Y) with X SubClassOf r some Y. A class X is a
+ * subclass of "r some Y" iff there is a link (X, r, Z) with Y in S(Z).
+ *
+ * Query nodes for anonymous class expressions and "r some Y" expressions are
+ * added incrementally. As no existing node links to a query node, adding it
+ * does not change the saturation of the existing nodes.
+ *
+ * This class is not thread-safe.
+ */
+class ElSaturation {
+
+	static final int TOP = 0;
+	static final int BOTTOM = 1;
+
+	private final OWLDataFactory dataFactory;
+
+	// concepts: named classes and internal concepts from the normalization
+	private final Map<OWLClass, Integer> classIds = new HashMap<OWLClass, Integer>();
+	private final List<OWLClass> classes = new ArrayList<OWLClass>(); // null for internal concepts
+	private final Map<OWLClassExpression, Integer> lhsConcepts = new HashMap<OWLClassExpression, Integer>();
+	private final Map<OWLClassExpression, Integer> rhsNodes = new HashMap<OWLClassExpression, Integer>();
+	private final Map<Long, Integer> existentialNodes = new HashMap<Long, Integer>();
+
+	// roles: named properties and internal roles for long property chains
+	private final Map<OWLObjectProperty, Integer> roleIds = new HashMap<OWLObjectProperty, Integer>();
+	private final List<IntList> superRoles = new ArrayList<IntList>();
+	private final List<IntList> chainsByFirst = new ArrayList<IntList>(); // pairs (second, result)
+	private final List<IntList> chainsBySecond = new ArrayList<IntList>(); // pairs (first, result)
+	private List<int[]> superRoleClosure = null;
+
+	// rules, indexed by concept
+	private final List<IntList> told = new ArrayList<IntList>(); // A SubClassOf B
+	private final List<IntList> conjunctions = new ArrayList<IntList>(); // pairs (other, result)
+	private final List<IntList> existentials = new ArrayList<IntList>(); // pairs (role, filler)
+	private final List<IntList> negativeExistentials = new ArrayList<IntList>(); // by filler, pairs (role, result)
+
+	// saturation, indexed by concept, null for concepts which are not nodes
+	private final List<BitSet> subsumers = new ArrayList<BitSet>();
+	private final List<IntList> successors = new ArrayList<IntList>(); // pairs (role, node)
+	private final List<IntList> predecessors = new ArrayList<IntList>(); // pairs (role, node)
+	private final List<LongSet> links = new ArrayList<LongSet>();
+
+	private final IntList subsumerQueue = new IntList();
+	private final IntList linkQueue = new IntList();
+
+	private int ignoredAxioms = 0;
+	private int unsupportedAxioms = 0;
+	private ReasonerTask task = null;
+
+	/**
+	 * Normalize the ontology including its imports and saturate all named classes.
+	 *
+	 * @param ontology
+	 * @param task used for progress, interruption and time out checks, may be null
+	 * @throws ReasonerInterruptedException
+	 * @throws TimeOutException
+	 */
+	ElSaturation(OWLOntology ontology, ReasonerTask task) throws ReasonerInterruptedException, TimeOutException {
+		this.task = task;
+		dataFactory = ontology.getOWLOntologyManager().getOWLDataFactory();
+		newConcept(dataFactory.getOWLThing());
+		newConcept(dataFactory.getOWLNothing());
+		for (OWLClass c : ontology.getClassesInSignature(Imports.INCLUDED)) {
+			getClassId(c, true);
+		}
+		for (OWLAxiom axiom : ontology.getAxioms(Imports.INCLUDED)) {
+			if (axiom.isLogicalAxiom()) {
+				int ignored = ignoredAxioms;
+				addAxiom(axiom);
+				if (ignoredAxioms > ignored) {
+					// count each axiom once, even if it is split into several rules
+					ignoredAxioms = ignored + 1;
+					if (isSupportedByElk(axiom)) {
+						unsupportedAxioms += 1;
+					}
+				}
+			}
+			if (task != null) {
+				task.step();
+			}
+		}
+		computeRoleClosure();
+		for (int i = 0; i < classes.size(); i++) {
+			if (classes.get(i) != null) {
+				initNode(i);
+			}
+		}
+		saturate();
+		// queries are small incremental saturations, which are not tracked
+		this.task = null;
+	}
+
+	/**
+	 * @return number of logical axioms, which are outside of the supported EL fragment
+	 */
+	int getIgnoredAxiomCount() {
+		return ignoredAxioms;
+	}
+
+	/**
+	 * @return number of ignored axioms, which Elk does reason with, the
+	 * results of the saturation can differ from Elk if this is not 0
+	 */
+	int getUnsupportedAxiomCount() {
+		return unsupportedAxioms;
+	}
+
+	/**
+	 * @param axiom an ignored axiom
+	 * @return true, if the axiom is in the part of the EL profile supported by Elk
+	 */
+	private static boolean isSupportedByElk(OWLAxiom axiom) {
+		AxiomType<?> type = axiom.getAxiomType();
+		if (AxiomType.OBJECT_PROPERTY_RANGE.equals(type) || AxiomType.REFLEXIVE_OBJECT_PROPERTY.equals(type)) {
+			return true;
+		}
+		for (OWLClassExpression ce : axiom.getNestedClassExpressions()) {
+			switch (ce.getClassExpressionType()) {
+			case OBJECT_HAS_VALUE:
+			case OBJECT_ONE_OF:
+			case OBJECT_HAS_SELF:
+			case DATA_HAS_VALUE:
+				return true;
+			default:
+				break;
+			}
+		}
+		return false;
+	}
+
+	// ---------------------------------------------------------------------
+	// normalization
+	// ---------------------------------------------------------------------
+
+	private void addAxiom(OWLAxiom axiom) {
+		AxiomType<?> type = axiom.getAxiomType();
+		if (AxiomType.SUBCLASS_OF.equals(type)) {
+			OWLSubClassOfAxiom ax = (OWLSubClassOfAxiom) axiom;
+			addSubClassOf(ax.getSubClass(), ax.getSuperClass());
+		}
+		else if (AxiomType.EQUIVALENT_CLASSES.equals(type)) {
+			OWLEquivalentClassesAxiom ax = (OWLEquivalentClassesAxiom) axiom;
+			List<OWLClassExpression> operands = ax.getClassExpressionsAsList();
+			for (OWLClassExpression ce : operands) {
+				if (isSupported(ce) == false) {
+					ignoredAxioms += 1;
+					return;
+				}
+			}
+			for (int i = 0; i < operands.size(); i++) {
+				for (int j = 0; j < operands.size(); j++) {
+					if (i != j) {
+						addSubClassOf(operands.get(i), operands.get(j));
+					}
+				}
+			}
+		}
+		else if (AxiomType.DISJOINT_CLASSES.equals(type)) {
+			OWLDisjointClassesAxiom ax = (OWLDisjointClassesAxiom) axiom;
+			List<OWLClassExpression> operands = ax.getClassExpressionsAsList();
+			for (int i = 0; i < operands.size(); i++) {
+				for (int j = i + 1; j < operands.size(); j++) {
+					addSubClassOf(dataFactory.getOWLObjectIntersectionOf(operands.get(i), operands.get(j)),
+							dataFactory.getOWLNothing());
+				}
+			}
+		}
+		else if (AxiomType.OBJECT_PROPERTY_DOMAIN.equals(type)) {
+			OWLObjectPropertyDomainAxiom ax = (OWLObjectPropertyDomainAxiom) axiom;
+			addSubClassOf(dataFactory.getOWLObjectSomeValuesFrom(ax.getProperty(), dataFactory.getOWLThing()),
+					ax.getDomain());
+		}
+		else if (AxiomType.SUB_OBJECT_PROPERTY.equals(type)) {
+			OWLSubObjectPropertyOfAxiom ax = (OWLSubObjectPropertyOfAxiom) axiom;
+			addSubPropertyOf(ax.getSubProperty(), ax.getSuperProperty());
+		}
+		else if (AxiomType.EQUIVALENT_OBJECT_PROPERTIES.equals(type)) {
+			OWLEquivalentObjectPropertiesAxiom ax = (OWLEquivalentObjectPropertiesAxiom) axiom;
+			for (OWLObjectPropertyExpression p1 : ax.getProperties()) {
+				for (OWLObjectPropertyExpression p2 : ax.getProperties()) {
+					if (p1.equals(p2) == false) {
+						addSubPropertyOf(p1, p2);
+					}
+				}
+			}
+		}
+		else if (AxiomType.TRANSITIVE_OBJECT_PROPERTY.equals(type)) {
+			OWLObjectPropertyExpression p = ((OWLTransitiveObjectPropertyAxiom) axiom).getProperty();
+			if (p.isAnonymous()) {
+				ignoredAxioms += 1;
+				return;
+			}
+			int r = getRoleId(p.asOWLObjectProperty());
+			addBinaryChain(r, r, r);
+		}
+		else if (AxiomType.SUB_PROPERTY_CHAIN_OF.equals(type)) {
+			OWLSubPropertyChainOfAxiom ax = (OWLSubPropertyChainOfAxiom) axiom;
+			addPropertyChain(ax.getPropertyChain(), ax.getSuperProperty());
+		}
+		else {
+			ignoredAxioms += 1;
+		}
+	}
+
+	private static boolean isSupported(OWLClassExpression ce) {
+		ClassExpressionType type = ce.getClassExpressionType();
+		if (ClassExpressionType.OWL_CLASS == type) {
+			return true;
+		}
+		if (ClassExpressionType.OBJECT_INTERSECTION_OF == type) {
+			for (OWLClassExpression operand : ((OWLObjectIntersectionOf) ce).getOperands()) {
+				if (isSupported(operand) == false) {
+					return false;
+				}
+			}
+			return true;
+		}
+		if (ClassExpressionType.OBJECT_SOME_VALUES_FROM == type) {
+			OWLObjectSomeValuesFrom svf = (OWLObjectSomeValuesFrom) ce;
+			return svf.getProperty().isAnonymous() == false && isSupported(svf.getFiller());
+		}
+		return false;
+	}
+
+	private void addSubClassOf(OWLClassExpression sub, OWLClassExpression sup) {
+		if (isSupported(sub) == false || isSupported(sup) == false) {
+			ignoredAxioms += 1;
+			return;
+		}
+		addRhs(getLhsConcept(sub), sup);
+	}
+
+	private void addSubPropertyOf(OWLObjectPropertyExpression sub, OWLObjectPropertyExpression sup) {
+		if (sub.isAnonymous() || sup.isAnonymous()) {
+			ignoredAxioms += 1;
+			return;
+		}
+		list(superRoles, getRoleId(sub.asOWLObjectProperty())).add(getRoleId(sup.asOWLObjectProperty()));
+	}
+
+	private void addPropertyChain(List<OWLObjectPropertyExpression> chain, OWLObjectPropertyExpression sup) {
+		if (sup.isAnonymous()) {
+			ignoredAxioms += 1;
+			return;
+		}
+		for (OWLObjectPropertyExpression p : chain) {
+			if (p.isAnonymous()) {
+				ignoredAxioms += 1;
+				return;
+			}
+		}
+		if (chain.size() == 1) {
+			addSubPropertyOf(chain.get(0), sup);
+			return;
+		}
+		// split longer chains into binary chains with internal roles
+		int current = getRoleId(chain.get(0).asOWLObjectProperty());
+		for (int i = 1; i < chain.size(); i++) {
+			int next = getRoleId(chain.get(i).asOWLObjectProperty());
+			int result = i == chain.size() - 1 ? getRoleId(sup.asOWLObjectProperty()) : newRole();
+			addBinaryChain(current, next, result);
+			current = result;
+		}
+	}
+
+	private void addBinaryChain(int first, int second, int result) {
+		list(chainsByFirst, first).add(second, result);
+		list(chainsBySecond, second).add(first, result);
+	}
+
+	/**
+	 * @param ce
+	 * @return concept, which is derived for a node X, iff X SubClassOf ce
+	 */
+	private int getLhsConcept(OWLClassExpression ce) {
+		if (ce.isAnonymous() == false) {
+			return getClassId(ce.asOWLClass(), true);
+		}
+		Integer id = lhsConcepts.get(ce);
+		if (id != null) {
+			return id;
+		}
+		int result;
+		if (ce instanceof OWLObjectIntersectionOf) {
+			result = -1;
+			for (OWLClassExpression operand : ((OWLObjectIntersectionOf) ce).getOperandsAsList()) {
+				int o = getLhsConcept(operand);
+				if (result < 0) {
+					result = o;
+				}
+				else {
+					int conjunction = newConcept(null);
+					addConjunction(result, o, conjunction);
+					result = conjunction;
+				}
+			}
+		}
+		else {
+			OWLObjectSomeValuesFrom svf = (OWLObjectSomeValuesFrom) ce;
+			int filler = getLhsConcept(svf.getFiller());
+			result = newConcept(null);
+			list(negativeExistentials, filler).add(getRoleId(svf.getProperty().asOWLObjectProperty()), result);
+		}
+		lhsConcepts.put(ce, result);
+		return result;
+	}
+
+	private void addConjunction(int first, int second, int result) {
+		if (first == second) {
+			list(told, first).add(result);
+		}
+		else {
+			list(conjunctions, first).add(second, result);
+			list(conjunctions, second).add(first, result);
+		}
+	}
+
+	/**
+	 * Add the rules for: concept SubClassOf ce
+	 *
+	 * @param concept
+	 * @param ce
+	 */
+	private void addRhs(int concept, OWLClassExpression ce) {
+		if (ce.isAnonymous() == false) {
+			int c = getClassId(ce.asOWLClass(), true);
+			if (c != TOP) {
+				list(told, concept).add(c);
+			}
+		}
+		else if (ce instanceof OWLObjectIntersectionOf) {
+			for (OWLClassExpression operand : ((OWLObjectIntersectionOf) ce).getOperands()) {
+				addRhs(concept, operand);
+			}
+		}
+		else {
+			OWLObjectSomeValuesFrom svf = (OWLObjectSomeValuesFrom) ce;
+			int role = getRoleId(svf.getProperty().asOWLObjectProperty());
+			list(existentials, concept).add(role, getRhsNode(svf.getFiller()));
+		}
+	}
+
+	/**
+	 * @param ce
+	 * @return node, which is a subclass of ce with no other told subsumers
+	 */
+	private int getRhsNode(OWLClassExpression ce) {
+		if (ce.isAnonymous() == false) {
+			return getClassId(ce.asOWLClass(), true);
+		}
+		Integer id = rhsNodes.get(ce);
+		if (id != null) {
+			return id;
+		}
+		int node = newConcept(null);
+		rhsNodes.put(ce, node);
+		addRhs(node, ce);
+		return node;
+	}
+
+	private int getClassId(OWLClass c, boolean create) {
+		if (c.isOWLThing()) {
+			return TOP;
+		}
+		if (c.isOWLNothing()) {
+			return BOTTOM;
+		}
+		Integer id = classIds.get(c);
+		if (id != null) {
+			return id;
+		}
+		if (create == false) {
+			return -1;
+		}
+		int created = newConcept(c);
+		if (superRoleClosure != null) {
+			// classes new to a query are nodes as well, saturated with the query
+			initNode(created);
+		}
+		return created;
+	}
+
+	private int newConcept(OWLClass c) {
+		int id = classes.size();
+		classes.add(c);
+		if (c != null) {
+			classIds.put(c, id);
+		}
+		told.add(null);
+		conjunctions.add(null);
+		existentials.add(null);
+		negativeExistentials.add(null);
+		subsumers.add(null);
+		successors.add(null);
+		predecessors.add(null);
+		links.add(null);
+		return id;
+	}
+
+	private int newRole() {
+		int id = superRoles.size();
+		superRoles.add(null);
+		chainsByFirst.add(null);
+		chainsBySecond.add(null);
+		if (superRoleClosure != null) {
+			superRoleClosure.add(new int[]{ id });
+		}
+		return id;
+	}
+
+	private void computeRoleClosure() {
+		superRoleClosure = new ArrayList<int[]>(superRoles.size());
+		for (int r = 0; r < superRoles.size(); r++) {
+			BitSet closure = new BitSet();
+			IntList stack = new IntList();
+			stack.add(r);
+			while (stack.size() > 0) {
+				int current = stack.removeLast();
+				if (closure.get(current)) {
+					continue;
+				}
+				closure.set(current);
+				IntList supers = superRoles.get(current);
+				if (supers != null) {
+					for (int i = 0; i < supers.size(); i++) {
+						stack.add(supers.get(i));
+					}
+				}
+			}
+			superRoleClosure.add(closure.stream().toArray());
+		}
+	}
+
+	private static IntList list(List<IntList> lists, int index) {
+		IntList list = lists.get(index);
+		if (list == null) {
+			list = new IntList();
+			lists.set(index, list);
+		}
+		return list;
+	}
+
+	// ---------------------------------------------------------------------
+	// saturation
+	// ---------------------------------------------------------------------
+
+	private void initNode(int x) {
+		if (subsumers.get(x) != null) {
+			return;
+		}
+		subsumers.set(x, new BitSet());
+		successors.set(x, new IntList());
+		predecessors.set(x, new IntList());
+		links.set(x, new LongSet());
+		addSubsumer(x, x);
+		addSubsumer(x, TOP);
+	}
+
+	private void addSubsumer(int x, int a) {
+		BitSet s = subsumers.get(x);
+		if (s.get(a) == false) {
+			s.set(a);
+			subsumerQueue.add(x, a);
+		}
+	}
+
+	private void addLink(int x, int r, int y) {
+		initNode(y);
+		if (links.get(x).add(((long) r << 32) | y)) {
+			successors.get(x).add(r, y);
+			predecessors.get(y).add(r, x);
+			linkQueue.add(x, r);
+			linkQueue.add(y);
+		}
+	}
+
+	private void saturate() {
+		int steps = 0;
+		while (subsumerQueue.size() > 0 || linkQueue.size() > 0) {
+			if (task != null && ++steps % 1024 == 0) {
+				task.check();
+			}
+			if (subsumerQueue.size() > 0) {
+				int a = subsumerQueue.removeLast();
+				int x = subsumerQueue.removeLast();
+				processSubsumer(x, a);
+			}
+			else {
+				int y = linkQueue.removeLast();
+				int r = linkQueue.removeLast();
+				int x = linkQueue.removeLast();
+				processLink(x, r, y);
+			}
+		}
+	}
+
+	private void processSubsumer(int x, int a) {
+		BitSet s = subsumers.get(x);
+		IntList rules = told.get(a);
+		if (rules != null) {
+			for (int i = 0; i < rules.size(); i++) {
+				addSubsumer(x, rules.get(i));
+			}
+		}
+		rules = conjunctions.get(a);
+		if (rules != null) {
+			for (int i = 0; i < rules.size(); i += 2) {
+				if (s.get(rules.get(i))) {
+					addSubsumer(x, rules.get(i + 1));
+				}
+			}
+		}
+		rules = existentials.get(a);
+		if (rules != null) {
+			for (int i = 0; i < rules.size(); i += 2) {
+				addLink(x, rules.get(i), rules.get(i + 1));
+			}
+		}
+		IntList preds = predecessors.get(x);
+		rules = negativeExistentials.get(a);
+		if (rules != null) {
+			for (int i = 0; i < rules.size(); i += 2) {
+				int role = rules.get(i);
+				for (int j = 0; j < preds.size(); j += 2) {
+					if (preds.get(j) == role) {
+						addSubsumer(preds.get(j + 1), rules.get(i + 1));
+					}
+				}
+			}
+		}
+		if (a == BOTTOM) {
+			for (int j = 0; j < preds.size(); j += 2) {
+				addSubsumer(preds.get(j + 1), BOTTOM);
+			}
+		}
+	}
+
+	private void processLink(int x, int r, int y) {
+		for (int s : superRoleClosure.get(r)) {
+			if (s != r) {
+				addLink(x, s, y);
+			}
+		}
+		BitSet sy = subsumers.get(y);
+		if (sy.get(BOTTOM)) {
+			addSubsumer(x, BOTTOM);
+		}
+		for (int a = sy.nextSetBit(0); a >= 0; a = sy.nextSetBit(a + 1)) {
+			IntList rules = negativeExistentials.get(a);
+			if (rules != null) {
+				for (int i = 0; i < rules.size(); i += 2) {
+					if (rules.get(i) == r) {
+						addSubsumer(x, rules.get(i + 1));
+					}
+				}
+			}
+		}
+		IntList chains = chainsByFirst.get(r);
+		if (chains != null) {
+			IntList succs = successors.get(y);
+			for (int i = 0; i < chains.size(); i += 2) {
+				int second = chains.get(i);
+				for (int j = 0; j < succs.size(); j += 2) {
+					if (succs.get(j) == second) {
+						addLink(x, chains.get(i + 1), succs.get(j + 1));
+					}
+				}
+			}
+		}
+		chains = chainsBySecond.get(r);
+		if (chains != null) {
+			IntList preds = predecessors.get(x);
+			for (int i = 0; i < chains.size(); i += 2) {
+				int first = chains.get(i);
+				for (int j = 0; j < preds.size(); j += 2) {
+					if (preds.get(j) == first) {
+						addLink(preds.get(j + 1), chains.get(i + 1), y);
+					}
+				}
+			}
+		}
+	}
+
+	// ---------------------------------------------------------------------
+	// queries
+	// ---------------------------------------------------------------------
+
+	/**
+	 * @param ce
+	 * @return saturated node for the class expression
+	 * @throws ClassExpressionNotInProfileException
+	 */
+	int getNode(OWLClassExpression ce) throws ClassExpressionNotInProfileException {
+		if (isSupported(ce) == false) {
+			throw new ClassExpressionNotInProfileException(ce, new OWL2ELProfile());
+		}
+		int node = getRhsNode(ce);
+		initNode(node);
+		saturate();
+		return node;
+	}
+
+	/**
+	 * @param role
+	 * @param filler
+	 * @return saturated node for the expression "role some filler"
+	 */
+	int getExistentialNode(int role, int filler) {
+		Long key = Long.valueOf(((long) role << 32) | filler);
+		Integer id = existentialNodes.get(key);
+		if (id != null) {
+			return id;
+		}
+		int node = newConcept(null);
+		existentialNodes.put(key, node);
+		initNode(node);
+		addLink(node, role, filler);
+		saturate();
+		return node;
+	}
+
+	/**
+	 * @param p
+	 * @return role id, new properties are added as roles without any rules
+	 */
+	int getRoleId(OWLObjectProperty p) {
+		Integer id = roleIds.get(p);
+		if (id != null) {
+			return id;
+		}
+		int role = newRole();
+		roleIds.put(p, role);
+		return role;
+	}
+
+	/**
+	 * @param c
+	 * @return id or -1, if the class is not known
+	 */
+	int getClassId(OWLClass c) {
+		return getClassId(c, false);
+	}
+
+	/**
+	 * @param id
+	 * @return class or null, if the concept is internal
+	 */
+	OWLClass getOWLClass(int id) {
+		return classes.get(id);
+	}
+
+	int getConceptCount() {
+		return classes.size();
+	}
+
+	boolean isUnsatisfiable(int node) {
+		return subsumers.get(node).get(BOTTOM);
+	}
+
+	/**
+	 * @param node
+	 * @param concept
+	 * @return true, if node SubClassOf concept
+	 */
+	boolean isSubsumedBy(int node, int concept) {
+		BitSet s = subsumers.get(node);
+		return s.get(concept) || s.get(BOTTOM);
+	}
+
+	/**
+	 * Check node SubClassOf ce against the saturation of node, without adding
+	 * any rules. The query node of an anonymous class expression is never
+	 * derived as a subsumer, so this is required to find the nodes
+	 * equivalent to it.
+	 *
+	 * @param node
+	 * @param ce class expression in the supported fragment
+	 * @return true, if node SubClassOf ce
+	 */
+	boolean isSubsumedBy(int node, OWLClassExpression ce) {
+		if (isUnsatisfiable(node)) {
+			return true;
+		}
+		if (ce.isAnonymous() == false) {
+			int c = getClassId(ce.asOWLClass(), false);
+			return c >= 0 && subsumers.get(node).get(c);
+		}
+		if (ce instanceof OWLObjectIntersectionOf) {
+			for (OWLClassExpression operand : ((OWLObjectIntersectionOf) ce).getOperands()) {
+				if (isSubsumedBy(node, operand) == false) {
+					return false;
+				}
+			}
+			return true;
+		}
+		OWLObjectSomeValuesFrom svf = (OWLObjectSomeValuesFrom) ce;
+		Integer role = roleIds.get(svf.getProperty().asOWLObjectProperty());
+		if (role == null) {
+			return false;
+		}
+		// the links of a saturated node include the super roles and chains
+		IntList succs = successors.get(node);
+		for (int i = 0; i < succs.size(); i += 2) {
+			if (succs.get(i) == role.intValue() && isSubsumedBy(succs.get(i + 1), svf.getFiller())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param node
+	 * @param role
+	 * @param filler
+	 * @return true, if node SubClassOf role some filler
+	 */
+	boolean hasExistential(int node, int role, int filler) {
+		if (isUnsatisfiable(node)) {
+			return true;
+		}
+		IntList succs = successors.get(node);
+		for (int i = 0; i < succs.size(); i += 2) {
+			if (succs.get(i) == role && subsumers.get(succs.get(i + 1)).get(filler)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param node
+	 * @return copy of the subsumers
+	 */
+	BitSet getSubsumers(int node) {
+		return (BitSet) subsumers.get(node).clone();
+	}
+
+	/**
+	 * For an unsatisfiable node, this only contains the fillers of the derived links.
+	 *
+	 * @param node
+	 * @param role
+	 * @return all concepts Y with node SubClassOf role some Y
+	 */
+	BitSet getExistentialFillers(int node, int role) {
+		BitSet fillers = new BitSet();
+		IntList succs = successors.get(node);
+		for (int i = 0; i < succs.size(); i += 2) {
+			if (succs.get(i) == role) {
+				fillers.or(subsumers.get(succs.get(i + 1)));
+			}
+		}
+		return fillers;
+	}
+
+	// ---------------------------------------------------------------------
+	// primitive collections
+	// ---------------------------------------------------------------------
+
+	/**
+	 * Growable list of ints, also used as stack.
+	 */
+	static final class IntList {
+
+		private int[] data = new int[4];
+		private int size = 0;
+
+		void add(int value) {
+			if (size == data.length) {
+				data = Arrays.copyOf(data, size * 2);
+			}
+			data[size++] = value;
+		}
+
+		void add(int first, int second) {
+			add(first);
+			add(second);
+		}
+
+		int get(int index) {
+			return data[index];
+		}
+
+		int removeLast() {
+			return data[--size];
+		}
+
+		int size() {
+			return size;
+		}
+	}
+
+	/**
+	 * Open addressing hash set for non-negative longs.
+	 */
+	static final class LongSet {
+
+		private static final long EMPTY = -1L;
+
+		private long[] keys = newTable(8);
+		private int size = 0;
+
+		boolean add(long key) {
+			if ((size + 1) * 2 > keys.length) {
+				rehash();
+			}
+			int mask = keys.length - 1;
+			int i = hash(key) & mask;
+			while (keys[i] != EMPTY) {
+				if (keys[i] == key) {
+					return false;
+				}
+				i = (i + 1) & mask;
+			}
+			keys[i] = key;
+			size += 1;
+			return true;
+		}
+
+		boolean contains(long key) {
+			int mask = keys.length - 1;
+			int i = hash(key) & mask;
+			while (keys[i] != EMPTY) {
+				if (keys[i] == key) {
+					return true;
+				}
+				i = (i + 1) & mask;
+			}
+			return false;
+		}
+
+		private void rehash() {
+			long[] old = keys;
+			keys = newTable(old.length * 2);
+			size = 0;
+			for (long key : old) {
+				if (key != EMPTY) {
+					add(key);
+				}
+			}
+		}
+
+		private static long[] newTable(int length) {
+			long[] table = new long[length];
+			Arrays.fill(table, EMPTY);
+			return table;
+		}
+
+		private static int hash(long key) {
+			long h = key * 0x9E3779B97F4A7C15L;
+			return (int) (h ^ (h >>> 32));
+		}
+	}
+}
@@ -0,0 +1,398 @@
+package org.geneontology.reasoner;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLObjectProperty;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.parameters.Imports;
+import org.semanticweb.owlapi.reasoner.BufferingMode;
+import org.semanticweb.owlapi.reasoner.ClassExpressionNotInProfileException;
+import org.semanticweb.owlapi.reasoner.FreshEntitiesException;
+import org.semanticweb.owlapi.reasoner.InconsistentOntologyException;
+import org.semanticweb.owlapi.reasoner.OWLReasonerConfiguration;
+import org.semanticweb.owlapi.reasoner.OWLReasonerFactory;
+import org.semanticweb.owlapi.reasoner.ReasonerInterruptedException;
+import org.semanticweb.owlapi.reasoner.SimpleConfiguration;
+import org.semanticweb.owlapi.reasoner.TimeOutException;
+
+/**
+ * Alternative to the {@link ExpressionMaterializingReasoner} for EL ontologies.
+ *
+ * Instead of creating helper classes for each class and property, the
+ * expressions of the form "R some Y" are read directly from an EL saturation
+ * of the root ontology. Axioms outside of the supported EL fragment are
+ * ignored for these queries, see {@link #getIgnoredAxiomCount()}.
+ *
+ * If the ontology contains axioms, which are ignored by the saturation but
+ * not by Elk, such as object property ranges, reflexive properties or
+ * nominals, the answers could differ from Elk. For these ontologies the
+ * expressions are materialized and answered by the wrapped reasoner like
+ * in the {@link ExpressionMaterializingReasoner}, see
+ * {@link #isFallbackToWrappedReasoner()}.
+ *
+ * All standard reasoner methods are still answered by the wrapped reasoner.
+ * Materializing expressions computes the saturation and registers the
+ * properties for {@link #getSuperClassExpressions(OWLClassExpression, boolean)},
+ * no axioms are added.
+ */
+public class ElSaturationReasoner extends ExpressionMaterializingReasoner {
+
+	private ElSaturation saturation = null;
+	private BitSet baseClassIds = null;
+	private boolean baseClassIdsIncludeImports = false;
+	// properties registered for the saturation, cachedProperties are the materialized ones
+	private final Set<OWLObjectProperty> properties = new HashSet<OWLObjectProperty>();
+
+	protected ElSaturationReasoner(OWLOntology rootOntology,
+			OWLReasonerFactory reasonerFactory,
+			OWLReasonerConfiguration configuration, BufferingMode bufferingMode) {
+		super(rootOntology, reasonerFactory, configuration, bufferingMode);
+	}
+
+	public ElSaturationReasoner(OWLOntology ont, OWLReasonerFactory reasonerFactory) {
+		this(ont, reasonerFactory, new SimpleConfiguration(), BufferingMode.BUFFERING);
+	}
+
+	public ElSaturationReasoner(OWLOntology ont, OWLReasonerFactory reasonerFactory, BufferingMode bufferingMode) {
+		this(ont, reasonerFactory, new SimpleConfiguration(), bufferingMode);
+	}
+
+	/**
+	 * @return saturation, which is computed if required
+	 * @throws ReasonerInterruptedException
+	 * @throws TimeOutException
+	 */
+	private ElSaturation getSaturation() throws ReasonerInterruptedException, TimeOutException {
+		if (saturation == null) {
+			ReasonerTask task = new ReasonerTask("Saturating ontology", configuration,
+					rootOntology.getAxiomCount(Imports.INCLUDED));
+			currentTask = task;
+			task.start();
+			try {
+				saturation = new ElSaturation(rootOntology, task);
+			}
+			finally {
+				task.stop();
+				currentTask = null;
+			}
+			baseClassIds = null;
+		}
+		if (baseClassIds == null || baseClassIdsIncludeImports != isIncludeImports()) {
+			// the classes for which the expressions would have been materialized
+			baseClassIds = new BitSet();
+			baseClassIdsIncludeImports = isIncludeImports();
+			for (OWLClass c : rootOntology.getClassesInSignature(Imports.fromBoolean(baseClassIdsIncludeImports))) {
+				int id = saturation.getClassId(c);
+				if (id >= 0) {
+					baseClassIds.set(id);
+				}
+			}
+		}
+		return saturation;
+	}
+
+	/**
+	 * @return number of logical axioms in the root ontology and its imports,
+	 * which are not supported by the saturation and ignored for the queries
+	 * over expressions. The saturation is computed if required.
+	 * @throws ReasonerInterruptedException
+	 * @throws TimeOutException
+	 */
+	public int getIgnoredAxiomCount() throws ReasonerInterruptedException, TimeOutException {
+		return getSaturation().getIgnoredAxiomCount();
+	}
+
+	/**
+	 * @return true, if the saturation ignores axioms Elk reasons with and the
+	 * queries are answered by the wrapped reasoner with materialized expressions.
+	 * The saturation is computed if required.
+	 * @throws ReasonerInterruptedException
+	 * @throws TimeOutException
+	 */
+	public boolean isFallbackToWrappedReasoner() throws ReasonerInterruptedException, TimeOutException {
+		return getSaturation().getUnsupportedAxiomCount() > 0;
+	}
+
+	/**
+	 * Compute the saturation, if required, and register the properties. The
+	 * saturation reports its progress and is bound by the time out of the
+	 * reasoner configuration, like the materialization of the
+	 * {@link ExpressionMaterializingReasoner}.
+	 * 
+	 * @see #isFallbackToWrappedReasoner()
+	 */
+	@Override
+	public void materializeExpressions(Collection<OWLObjectProperty> properties)
+			throws ReasonerInterruptedException, TimeOutException {
+		// saturate first, an interrupt or time out leaves the properties unregistered
+		boolean fallback = isFallbackToWrappedReasoner();
+		boolean added = this.properties.addAll(properties);
+		if (fallback) {
+			super.materializeExpressions(this.properties);
+		}
+		else if (added) {
+			// notify the inference listeners about the new properties
+			flush();
+		}
+	}
+
+	@Override
+	public void materializeExpressions(OWLObjectProperty p)
+			throws ReasonerInterruptedException, TimeOutException {
+		materializeExpressions(Collections.singleton(p));
+	}
+
+	@Override
+	public Set<OWLClassExpression> getSuperClassExpressions(OWLClassExpression ce,
+			boolean direct) throws InconsistentOntologyException,
+			ClassExpressionNotInProfileException, FreshEntitiesException,
+			ReasonerInterruptedException, TimeOutException {
+
+		if (isFallbackToWrappedReasoner()) {
+			materializeExpressions(properties);
+			return super.getSuperClassExpressions(ce, direct);
+		}
+		OWLDataFactory dataFactory = manager.getOWLDataFactory();
+		ElSaturation s = getSaturation();
+		int node = s.getNode(ce);
+
+		List<Candidate> candidates = new ArrayList<Candidate>();
+		BitSet named;
+		if (s.isUnsatisfiable(node)) {
+			named = new BitSet();
+			named.set(0, s.getConceptCount());
+		}
+		else {
+			named = s.getSubsumers(node);
+		}
+		for (int c = named.nextSetBit(0); c >= 0; c = named.nextSetBit(c + 1)) {
+			OWLClass cls = s.getOWLClass(c);
+			if (cls == null || c == ElSaturation.BOTTOM || isEquivalent(s, c, ce, node)) {
+				continue;
+			}
+			candidates.add(new Candidate(cls, c, -1, c));
+		}
+		for (OWLObjectProperty p : properties) {
+			int role = s.getRoleId(p);
+			BitSet fillers = getFillers(s, node, role);
+			for (int y = fillers.nextSetBit(0); y >= 0; y = fillers.nextSetBit(y + 1)) {
+				int q = s.getExistentialNode(role, y);
+				if (isEquivalent(s, q, ce, node)) {
+					continue;
+				}
+				candidates.add(new Candidate(dataFactory.getOWLObjectSomeValuesFrom(p, s.getOWLClass(y)), q, role, y));
+			}
+		}
+
+		Set<OWLClassExpression> ces = new HashSet<OWLClassExpression>();
+		for (Candidate c : candidates) {
+			if (direct && hasStrictSubCandidate(s, c, candidates)) {
+				continue;
+			}
+			ces.add(c.ce);
+		}
+		return ces;
+	}
+
+	@Override
+	public Set<OWLClass> getSuperClassesOver(OWLClassExpression ce,
+			OWLObjectProperty p,
+			boolean direct) throws InconsistentOntologyException,
+			ClassExpressionNotInProfileException, FreshEntitiesException,
+			ReasonerInterruptedException, TimeOutException {
+
+		materializeExpressions(p);
+		if (isFallbackToWrappedReasoner()) {
+			return super.getSuperClassesOver(ce, p, direct);
+		}
+		ElSaturation s = getSaturation();
+		int node = s.getNode(ce);
+		int role = s.getRoleId(p);
+		BitSet fillers = getFillers(s, node, role);
+		for (int y = fillers.nextSetBit(0); y >= 0; y = fillers.nextSetBit(y + 1)) {
+			if (isEquivalent(s, s.getExistentialNode(role, y), ce, node)) {
+				fillers.clear(y);
+			}
+		}
+		BitSet result = fillers;
+		if (direct) {
+			result = (BitSet) fillers.clone();
+			for (int y = fillers.nextSetBit(0); y >= 0; y = fillers.nextSetBit(y + 1)) {
+				int qy = s.getExistentialNode(role, y);
+				for (int z = fillers.nextSetBit(0); z >= 0; z = fillers.nextSetBit(z + 1)) {
+					// remove z, if "p some y" is a strict subclass of "p some z"
+					if (z != y && s.hasExistential(qy, role, z)
+							&& s.hasExistential(s.getExistentialNode(role, z), role, y) == false) {
+						result.clear(z);
+					}
+				}
+			}
+		}
+		Set<OWLClass> rcs = new HashSet<OWLClass>();
+		for (int y = result.nextSetBit(0); y >= 0; y = result.nextSetBit(y + 1)) {
+			rcs.add(s.getOWLClass(y));
+		}
+		return rcs;
+	}
+
+	/**
+	 * Anonymous class expressions are handled directly by the saturation,
+	 * so the batch is answered without temporary classes.
+	 */
+	@Override
+	public Map<OWLClassExpression, Set<OWLClassExpression>> getSuperClassExpressions(Collection<? extends OWLClassExpression> ces,
+			boolean direct) throws InconsistentOntologyException,
+			ClassExpressionNotInProfileException, FreshEntitiesException,
+			ReasonerInterruptedException, TimeOutException {
+		if (isFallbackToWrappedReasoner()) {
+			materializeExpressions(properties);
+			return super.getSuperClassExpressions(ces, direct);
+		}
+		Map<OWLClassExpression, Set<OWLClassExpression>> results = new HashMap<OWLClassExpression, Set<OWLClassExpression>>();
+		for (OWLClassExpression ce : ces) {
+			results.put(ce, getSuperClassExpressions(ce, direct));
+		}
+		return results;
+	}
+
+	/**
+	 * Anonymous class expressions are handled directly by the saturation,
+	 * so the batch is answered without temporary classes.
+	 */
+	@Override
+	public Map<OWLClassExpression, Set<OWLClass>> getSuperClassesOver(Collection<? extends OWLClassExpression> ces,
+			OWLObjectProperty p,
+			boolean direct) throws InconsistentOntologyException,
+			ClassExpressionNotInProfileException, FreshEntitiesException,
+			ReasonerInterruptedException, TimeOutException {
+		if (isFallbackToWrappedReasoner()) {
+			return super.getSuperClassesOver(ces, p, direct);
+		}
+		Map<OWLClassExpression, Set<OWLClass>> results = new HashMap<OWLClassExpression, Set<OWLClass>>();
+		for (OWLClassExpression ce : ces) {
+			results.put(ce, getSuperClassesOver(ce, p, direct));
+		}
+		return results;
+	}
+
+	/**
+	 * @param s
+	 * @param node
+	 * @param role
+	 * @return all materialization base classes Y with node SubClassOf role some Y
+	 */
+	private BitSet getFillers(ElSaturation s, int node, int role) {
+		BitSet fillers;
+		if (s.isUnsatisfiable(node)) {
+			fillers = new BitSet();
+			fillers.set(0, s.getConceptCount());
+		}
+		else {
+			fillers = s.getExistentialFillers(node, role);
+		}
+		fillers.and(baseClassIds);
+		return fillers;
+	}
+
+	/**
+	 * Superclasses equivalent to the query are not part of the results, like
+	 * for {@link ExpressionMaterializingReasoner}. The candidate is already a
+	 * superclass of the query node.
+	 *
+	 * @param s
+	 * @param candidate node of the superclass candidate
+	 * @param ce query
+	 * @param node query node
+	 * @return true, if the candidate is equivalent to the query
+	 */
+	private static boolean isEquivalent(ElSaturation s, int candidate, OWLClassExpression ce, int node) {
+		if (s.isUnsatisfiable(node)) {
+			return s.isUnsatisfiable(candidate);
+		}
+		return s.isSubsumedBy(candidate, ce);
+	}
+
+	private static boolean hasStrictSubCandidate(ElSaturation s, Candidate c, List<Candidate> candidates) {
+		for (Candidate d : candidates) {
+			if (d != c && d.isSubsumedBy(s, c) && c.isSubsumedBy(s, d) == false) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * A named class or an expression "role some filler" in a superclass result.
+	 */
+	private static class Candidate {
+
+		final OWLClassExpression ce;
+		final int node;
+		final int role;
+		final int filler;
+
+		Candidate(OWLClassExpression ce, int node, int role, int filler) {
+			this.ce = ce;
+			this.node = node;
+			this.role = role;
+			this.filler = filler;
+		}
+
+		boolean isSubsumedBy(ElSaturation s, Candidate other) {
+			if (other.role < 0) {
+				return s.isSubsumedBy(node, other.filler);
+			}
+			return s.hasExistential(node, other.role, other.filler);
+		}
+	}
+
+	@Override
+	public String getReasonerName() {
+		return "EL Saturation Reasoner";
+	}
+
+	@Override
+	void populateIndex(ExpressionBitmapIndex index, OWLObjectProperty p) {
+		if (isFallbackToWrappedReasoner()) {
+			super.populateIndex(index, p);
+			return;
+		}
+		ElSaturation s = getSaturation();
+		int role = s.getRoleId(p);
+		for (int x = baseClassIds.nextSetBit(0); x >= 0; x = baseClassIds.nextSetBit(x + 1)) {
+			OWLClass sub = s.getOWLClass(x);
+			BitSet fillers = getFillers(s, x, role);
+			for (int y = fillers.nextSetBit(0); y >= 0; y = fillers.nextSetBit(y + 1)) {
+				index.add(sub, p, s.getOWLClass(y));
+			}
+		}
+	}
+
+	@Override
+	Collection<OWLObjectProperty> getMaterializedProperties() {
+		return properties;
+	}
+
+	@Override
+	void invalidate() {
+		super.invalidate();
+		saturation = null;
+	}
+
+	@Override
+	public void dispose() {
+		saturation = null;
+		super.dispose();
+	}
+}
@@ -0,0 +1,45 @@
+package org.geneontology.reasoner;
+
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.reasoner.BufferingMode;
+import org.semanticweb.owlapi.reasoner.IllegalConfigurationException;
+import org.semanticweb.owlapi.reasoner.OWLReasonerConfiguration;
+import org.semanticweb.owlapi.reasoner.OWLReasonerFactory;
+import org.semanticweb.owlapi.reasoner.SimpleConfiguration;
+
+/**
+ * Simple OWL-API {@link OWLReasonerFactory} for instantiating an
+ * {@link ElSaturationReasoner}.
+ */
+public class ElSaturationReasonerFactory implements OWLExtendedReasonerFactory<ElSaturationReasoner> {
+
+	private final OWLReasonerFactory factory;
+
+	/**
+	 * @param factory used for the standard reasoner methods
+	 */
+	public ElSaturationReasonerFactory(OWLReasonerFactory factory) {
+		super();
+		this.factory = factory;
+	}
+
+	public String getReasonerName() {
+		return "ElSaturationReasoner";
+	}
+
+	public ElSaturationReasoner createNonBufferingReasoner(OWLOntology ontology) {
+		return createNonBufferingReasoner(ontology, new SimpleConfiguration());
+	}
+
+	public ElSaturationReasoner createReasoner(OWLOntology ontology) {
+		return createReasoner(ontology, new SimpleConfiguration());
+	}
+
+	public ElSaturationReasoner createNonBufferingReasoner(OWLOntology ontology, OWLReasonerConfiguration config) throws IllegalConfigurationException {
+		return new ElSaturationReasoner(ontology, factory, config, BufferingMode.NON_BUFFERING);
+	}
+
+	public ElSaturationReasoner createReasoner(OWLOntology ontology, OWLReasonerConfiguration config) throws IllegalConfigurationException {
+		return new ElSaturationReasoner(ontology, factory, config, BufferingMode.BUFFERING);
+	}
+}
@@ -0,0 +1,134 @@
+package org.geneontology.reasoner;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLObjectProperty;
+
+/**
+ * Bitmaps over dense class ids for each pair of property and filler: the
+ * bitmap for (p, Y) contains all indexed classes X with X SubClassOf p some Y.
+ *
+ * Conjunctive and disjunctive queries are answered with bitmap operations.
+ * The index is populated per property, see {@link #isIndexed(OWLObjectProperty)}.
+ */
+class ExpressionBitmapIndex {
+
+	private final Map<OWLClass, Integer> classIds = new HashMap<OWLClass, Integer>();
+	private final List<OWLClass> classes = new ArrayList<OWLClass>();
+	private final Map<OWLObjectProperty, Map<OWLClass, BitSet>> bitmaps = new HashMap<OWLObjectProperty, Map<OWLClass,BitSet>>();
+
+	/**
+	 * @param classes the classes, which can be part of query results
+	 */
+	ExpressionBitmapIndex(Collection<OWLClass> classes) {
+		for (OWLClass c : classes) {
+			if (classIds.containsKey(c) == false) {
+				classIds.put(c, this.classes.size());
+				this.classes.add(c);
+			}
+		}
+	}
+
+	boolean isIndexed(OWLObjectProperty p) {
+		return bitmaps.containsKey(p);
+	}
+
+	/**
+	 * Mark the property as indexed, even if no class is a subclass of an
+	 * expression with this property.
+	 *
+	 * @param p
+	 */
+	void setIndexed(OWLObjectProperty p) {
+		if (bitmaps.containsKey(p) == false) {
+			bitmaps.put(p, new HashMap<OWLClass, BitSet>());
+		}
+	}
+
+	/**
+	 * Record that sub is a subclass of "p some filler", classes which are not
+	 * part of the index are ignored.
+	 *
+	 * @param sub
+	 * @param p
+	 * @param filler
+	 */
+	void add(OWLClass sub, OWLObjectProperty p, OWLClass filler) {
+		Integer id = classIds.get(sub);
+		if (id == null) {
+			return;
+		}
+		setIndexed(p);
+		Map<OWLClass, BitSet> byFiller = bitmaps.get(p);
+		BitSet bitmap = byFiller.get(filler);
+		if (bitmap == null) {
+			// grows with the highest id, most pairs only have a few subclasses
+			bitmap = new BitSet();
+			byFiller.put(filler, bitmap);
+		}
+		bitmap.set(id);
+	}
+
+	/**
+	 * @param p
+	 * @param filler
+	 * @return bitmap, must not be modified
+	 */
+	private BitSet get(OWLObjectProperty p, OWLClass filler) {
+		Map<OWLClass, BitSet> byFiller = bitmaps.get(p);
+		if (byFiller != null) {
+			BitSet bitmap = byFiller.get(filler);
+			if (bitmap != null) {
+				return bitmap;
+			}
+		}
+		return new BitSet();
+	}
+
+	/**
+	 * @param properties
+	 * @param fillers
+	 * @return intersection of the bitmaps for the pairs, all classes for an empty query
+	 */
+	BitSet and(List<OWLObjectProperty> properties, List<OWLClass> fillers) {
+		if (properties.isEmpty()) {
+			BitSet result = new BitSet(classes.size());
+			result.set(0, classes.size());
+			return result;
+		}
+		BitSet result = (BitSet) get(properties.get(0), fillers.get(0)).clone();
+		for (int i = 1; i < properties.size() && result.isEmpty() == false; i++) {
+			result.and(get(properties.get(i), fillers.get(i)));
+		}
+		return result;
+	}
+
+	/**
+	 * @param properties
+	 * @param fillers
+	 * @return union of the bitmaps for the pairs
+	 */
+	BitSet or(List<OWLObjectProperty> properties, List<OWLClass> fillers) {
+		BitSet result = new BitSet();
+		for (int i = 0; i < properties.size(); i++) {
+			result.or(get(properties.get(i), fillers.get(i)));
+		}
+		return result;
+	}
+
+	Set<OWLClass> toClasses(BitSet bitmap) {
+		Set<OWLClass> result = new HashSet<OWLClass>();
+		for (int i = bitmap.nextSetBit(0); i >= 0; i = bitmap.nextSetBit(i + 1)) {
+			result.add(classes.get(i));
+		}
+		return result;
+	}
+}
@@ -1,14 +1,18 @@
 package org.geneontology.reasoner;
 
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
-import org.semanticweb.owlapi.model.AddImport;
 import org.semanticweb.owlapi.model.AxiomType;
 import org.semanticweb.owlapi.model.IRI;
 import org.semanticweb.owlapi.model.OWLAxiom;
@@ -25,11 +29,8 @@ import org.semanticweb.owlapi.model.OWLObjectPropertyExpression;
 import org.semanticweb.owlapi.model.OWLObjectSomeValuesFrom;
 import org.semanticweb.owlapi.model.OWLOntology;
 import org.semanticweb.owlapi.model.OWLOntologyChange;
-import org.semanticweb.owlapi.model.OWLOntologyCreationException;
-import org.semanticweb.owlapi.model.OWLOntologyID;
+import org.semanticweb.owlapi.model.OWLOntologyChangeListener;
 import org.semanticweb.owlapi.model.OWLOntologyManager;
-import org.semanticweb.owlapi.model.SetOntologyID;
-import org.semanticweb.owlapi.model.UnknownOWLOntologyException;
 import org.semanticweb.owlapi.model.parameters.Imports;
 import org.semanticweb.owlapi.reasoner.AxiomNotInProfileException;
 import org.semanticweb.owlapi.reasoner.BufferingMode;
@@ -51,8 +52,6 @@ import org.semanticweb.owlapi.reasoner.UnsupportedEntailmentTypeException;
 import org.semanticweb.owlapi.reasoner.impl.OWLReasonerBase;
 import org.semanticweb.owlapi.util.Version;
 
-import com.google.common.base.Optional;
-
 /**
  * This wraps an existing reasoner to implement OWLExtendedReasoner.
  * 
@@ -73,72 +72,75 @@ import com.google.common.base.Optional;
  */
 public class ExpressionMaterializingReasoner extends OWLReasonerBase implements OWLExtendedReasoner {
 
-	private OWLReasoner wrappedReasoner;
+	private final MaterializationState state;
+	private final OWLReasoner wrappedReasoner;
 
 	private final OWLDataFactory dataFactory;
-	private final OWLOntology rootOntology;
+	final OWLOntology rootOntology;
 	private final OWLOntology expandedOntology;
 	final OWLOntologyManager manager;
 	final Set<OWLObjectProperty> cachedProperties;
 	private final Map<OWLClass,OWLObjectSomeValuesFrom> cxMap;
 	
+	final OWLReasonerConfiguration configuration;
+	volatile ReasonerTask currentTask = null;
+	
 	private boolean includeImports = false;
+	private ExpressionBitmapIndex bitmapIndex = null;
+	private final List<InferenceChangeListener> inferenceListeners = new CopyOnWriteArrayList<InferenceChangeListener>();
+	private InferenceDelta.Snapshot lastSnapshot = null;
+	// properties of the last snapshot and whether the ontologies changed since
+	private Set<OWLObjectProperty> lastSnapshotProperties = null;
+	private boolean changedSinceSnapshot = false;
+	private boolean disposed = false;
+	private int queryClassCount = 0;
+	
+	private final OWLOntologyChangeListener changeListener = new OWLOntologyChangeListener() {
+
+		@Override
+		public void ontologiesChanged(List<? extends OWLOntologyChange> changes) {
+			// the helper and query classes in the expanded ontology are
+			// definitions, which do not change the inferences for the root ontology
+			Set<OWLOntology> closure = rootOntology.getImportsClosure();
+			for (OWLOntologyChange change : changes) {
+				if (closure.contains(change.getOntology())) {
+					invalidate();
+					return;
+				}
+			}
+		}
+	};
 
 
 	protected ExpressionMaterializingReasoner(OWLOntology rootOntology, 
 			OWLReasonerFactory reasonerFactory,
 			OWLReasonerConfiguration configuration, BufferingMode bufferingMode) {
-		super(rootOntology, configuration, bufferingMode);
-		try {
-			this.rootOntology = rootOntology;
-			manager = rootOntology.getOWLOntologyManager();
-			dataFactory = manager.getOWLDataFactory();
-			expandedOntology = createExpandedOntologyStub(rootOntology);
-			if (BufferingMode.NON_BUFFERING == bufferingMode) {
-				wrappedReasoner = reasonerFactory.createReasoner(expandedOntology, configuration);	
-			}
-			else {
-				wrappedReasoner = reasonerFactory.createNonBufferingReasoner(expandedOntology, configuration);
-			}
-			
-			
-		} catch (UnknownOWLOntologyException e) {
-			throw new RuntimeException("Could not setup reasoner", e);
-		} catch (OWLOntologyCreationException e) {
-			throw new RuntimeException("Could not setup reasoner", e);
-		}
-		cachedProperties = new HashSet<OWLObjectProperty>();
-		cxMap = new HashMap<OWLClass, OWLObjectSomeValuesFrom>();
+		this(new MaterializationState(rootOntology, reasonerFactory, configuration, bufferingMode),
+				configuration, bufferingMode);
+		state.retain();
 	}
 
 	/**
-	 * @param rootOntology
-	 * @return ontology
-	 * @throws OWLOntologyCreationException
+	 * Create a reasoner on top of an existing, possibly shared, materialization state.
+	 * The caller is responsible for retaining the state on behalf of this reasoner.
+	 * 
+	 * @param state
+	 * @param configuration
+	 * @param bufferingMode
 	 */
-	private OWLOntology createExpandedOntologyStub(OWLOntology rootOntology)
-			throws OWLOntologyCreationException {
-		OWLOntology expandedOntology = manager.createOntology(IRI.generateDocumentIRI());
-		IRI rootOntologyIRI;
-		OWLOntologyID rootId = rootOntology.getOntologyID();
-		if (rootId == null) {
-			rootOntologyIRI = IRI.generateDocumentIRI();
-			manager.applyChange(new SetOntologyID(rootOntology, rootOntologyIRI));
-		}
-		else {
-			Optional<IRI> optional = rootId.getOntologyIRI();
-			if (optional.isPresent() == false) {
-				rootOntologyIRI = IRI.generateDocumentIRI();
-				manager.applyChange(new SetOntologyID(rootOntology, rootOntologyIRI));
-			}
-			else {
-				rootOntologyIRI = optional.get();
-			}
-		}
-		AddImport ai = new AddImport(expandedOntology, 
-				dataFactory.getOWLImportsDeclaration(rootOntologyIRI));
-		manager.applyChange(ai);
-		return expandedOntology;
+	ExpressionMaterializingReasoner(MaterializationState state,
+			OWLReasonerConfiguration configuration, BufferingMode bufferingMode) {
+		super(state.rootOntology, configuration, bufferingMode);
+		this.state = state;
+		this.configuration = configuration;
+		rootOntology = state.rootOntology;
+		manager = state.manager;
+		dataFactory = state.dataFactory;
+		expandedOntology = state.expandedOntology;
+		wrappedReasoner = state.wrappedReasoner;
+		cachedProperties = state.cachedProperties;
+		cxMap = state.cxMap;
+		manager.addOntologyChangeListener(changeListener);
 	}
 
 	public ExpressionMaterializingReasoner(OWLOntology ont, OWLReasonerFactory reasonerFactory) {
@@ -158,6 +160,7 @@ public class ExpressionMaterializingReasoner extends OWLReasonerBase implements
 	 */
 	public void setIncludeImports(boolean includeImports) {
 		this.includeImports = includeImports;
+		invalidate();
 	}
 	
 	/**
@@ -179,34 +182,91 @@ public class ExpressionMaterializingReasoner extends OWLReasonerBase implements
 	/**
 	 * Materialize expressions for a collection of properties and all classes in the ontology signature.
 	 * 
+	 * The progress of the materialization and the following classification is
+	 * reported to the progress monitor of the reasoner configuration. The
+	 * configured time out applies to the materialization and the following
+	 * classification together. The wrapped reasoner can not be stopped at the
+	 * remaining budget, so the time out of the classification is only detected
+	 * once the wrapped reasoner returns.
+	 * 
+	 * If interrupted or timed out during the materialization, only the
+	 * properties materialized so far are added to the expanded ontology. These
+	 * are flushed, and the inference change listeners notified, before the
+	 * exception is thrown. If the time out is exceeded during the
+	 * classification, all properties remain materialized and a
+	 * {@link TimeOutException} is thrown afterwards.
+	 * 
 	 * @param properties
+	 * @throws ReasonerInterruptedException
+	 * @throws TimeOutException
 	 * @see ExpressionMaterializingReasoner#setIncludeImports(boolean) if it should include imports
 	 */
-	public void materializeExpressions(Collection<OWLObjectProperty> properties) {
+	public void materializeExpressions(Collection<OWLObjectProperty> properties)
+			throws ReasonerInterruptedException, TimeOutException {
+		List<OWLObjectProperty> pending = new ArrayList<OWLObjectProperty>();
 		for (OWLObjectProperty p : properties) {
-			if (cachedProperties.contains(p)){
-				continue;
+			if (cachedProperties.contains(p) == false && pending.contains(p) == false){
+				pending.add(p);
+			}
+		}
+		if (pending.isEmpty()) {
+			return;
+		}
+		Set<OWLClass> baseClasses = rootOntology.getClassesInSignature(Imports.fromBoolean(includeImports));
+		ReasonerTask task = new ReasonerTask("Materializing expressions", configuration,
+				(long) pending.size() * baseClasses.size());
+		currentTask = task;
+		task.start();
+		boolean added = false;
+		try {
+			for (OWLObjectProperty p : pending) {
+				materializeExpressionsInternal(p, baseClasses, task);
+				added = true;
+			}
+		}
+		finally {
+			task.stop();
+			currentTask = null;
+			if (added) {
+				// also after an interrupt or time out, as the completed properties are already cached
+				flush();
 			}
-			materializeExpressions(p);
 		}
-		flush();
+		wrappedReasoner.precomputeInferences(InferenceType.CLASS_HIERARCHY);
+		// the classification counts against the deadline of the task
+		task.check();
 	}
 
 	/**
 	 * Materialize expressions a property and all classes in the ontology signature.
 	 * 
 	 * @param p
+	 * @throws ReasonerInterruptedException
+	 * @throws TimeOutException
+	 * @see ExpressionMaterializingReasoner#materializeExpressions(Collection)
 	 * @see ExpressionMaterializingReasoner#setIncludeImports(boolean) if it should include imports
 	 */
-	public void materializeExpressions(OWLObjectProperty p) {
+	public void materializeExpressions(OWLObjectProperty p)
+			throws ReasonerInterruptedException, TimeOutException {
 		if (cachedProperties.contains(p))
 			return;
-		materializeExpressionsInternal(p);
-		flush();
+		materializeExpressions(Collections.singleton(p));
 	}
 	
-	private void materializeExpressionsInternal(OWLObjectProperty p) {
-		for (OWLClass baseClass : rootOntology.getClassesInSignature(Imports.fromBoolean(includeImports))) {
+	/**
+	 * Create the helper classes for one property. The axioms are added in one
+	 * batch after all of them have been generated, an interrupt leaves the
+	 * expanded ontology unchanged.
+	 */
+	private void materializeExpressionsInternal(OWLObjectProperty p, Set<OWLClass> baseClasses, ReasonerTask task) {
+		if (state.isFrozen()) {
+			throw new IllegalStateException("Property "+p+" is not part of the shared materialization, "
+					+ "use a separate reasoner to materialize additional properties");
+		}
+		List<OWLAxiom> axioms = new ArrayList<OWLAxiom>();
+		Map<OWLClass,OWLObjectSomeValuesFrom> helpers = new HashMap<OWLClass, OWLObjectSomeValuesFrom>();
+		for (OWLClass baseClass : baseClasses) {
+			task.step();
 			// only materialize for non-helper classes
 			if (cxMap.containsKey(baseClass)) {
 				continue;
@@ -216,11 +276,13 @@ public class ExpressionMaterializingReasoner extends OWLReasonerBase implements
 			OWLClass xc = dataFactory.getOWLClass(xciri);
 			OWLEquivalentClassesAxiom eca = dataFactory.getOWLEquivalentClassesAxiom(xc, x);
 			String lbl = p.getIRI().getShortForm()+" "+baseClass.getIRI().getShortForm();
-			manager.addAxiom(expandedOntology, dataFactory.getOWLAnnotationAssertionAxiom(xciri, dataFactory.getOWLAnnotation(dataFactory.getRDFSLabel(), dataFactory.getOWLLiteral(lbl))));
-			cxMap.put(xc, x);
-			manager.addAxiom(expandedOntology, eca);
-			manager.addAxiom(expandedOntology, dataFactory.getOWLDeclarationAxiom(xc));
+			axioms.add(dataFactory.getOWLAnnotationAssertionAxiom(xciri, dataFactory.getOWLAnnotation(dataFactory.getRDFSLabel(), dataFactory.getOWLLiteral(lbl))));
+			helpers.put(xc, x);
+			axioms.add(eca);
+			axioms.add(dataFactory.getOWLDeclarationAxiom(xc));
 		}
+		manager.addAxioms(expandedOntology, new HashSet<OWLAxiom>(axioms));
+		cxMap.putAll(helpers);
 		cachedProperties.add(p);
 	}
 	
@@ -291,6 +353,307 @@ public class ExpressionMaterializingReasoner extends OWLReasonerBase implements
 		return rcs;
 	}
 
+	/**
+	 * Batch version of {@link #getSuperClassExpressions(OWLClassExpression, boolean)}.
+	 * 
+	 * All anonymous class expressions are added as temporary named classes to
+	 * the expanded ontology in one change, answered after a single
+	 * classification of the wrapped reasoner and removed again afterwards.
+	 * The temporary classes are never part of the results, neither for the
+	 * anonymous nor for the named class expressions of the batch.
+	 * 
+	 * Reasoners sharing a materialization, see
+	 * {@link ExpressionMaterializingReasonerFactory#createSharedReasoner(OWLOntology, Collection)},
+	 * only accept batches of named classes.
+	 * 
+	 * @param ces
+	 * @param direct
+	 * @return superclasses by query expression
+	 * @throws IllegalStateException if the batch contains anonymous class expressions and the materialization is shared
+	 */
+	public Map<OWLClassExpression, Set<OWLClassExpression>> getSuperClassExpressions(Collection<? extends OWLClassExpression> ces,
+			boolean direct) throws InconsistentOntologyException,
+			ClassExpressionNotInProfileException, FreshEntitiesException,
+			ReasonerInterruptedException, TimeOutException {
+		Map<OWLClassExpression, Set<OWLClassExpression>> results = new HashMap<OWLClassExpression, Set<OWLClassExpression>>();
+		Map<OWLClassExpression, OWLClass> queryClasses = new HashMap<OWLClassExpression, OWLClass>();
+		Set<OWLAxiom> queryAxioms = new HashSet<OWLAxiom>();
+		try {
+			addQueryClasses(ces, queryClasses, queryAxioms);
+			Set<OWLClass> hidden = new HashSet<OWLClass>(queryClasses.values());
+			for (OWLClassExpression ce : ces) {
+				// named classes can be subsumed by the query classes, hide them as well
+				OWLClass qc = queryClasses.get(ce);
+				if (qc == null) {
+					qc = ce.asOWLClass();
+				}
+				Set<OWLClassExpression> superCes = new HashSet<OWLClassExpression>();
+				for (OWLClass c : getSuperClasses(qc, direct, hidden)) {
+					if (cxMap.containsKey(c)) {
+						superCes.add(cxMap.get(c));
+					}
+					else {
+						superCes.add(c);
+					}
+				}
+				results.put(ce, superCes);
+			}
+		}
+		finally {
+			removeQueryClasses(queryAxioms);
+		}
+		return results;
+	}
+
+	/**
+	 * Batch version of {@link #getSuperClassesOver(OWLClassExpression, OWLObjectProperty, boolean)}.
+	 * 
+	 * @param ces
+	 * @param p
+	 * @param direct
+	 * @return named fillers by query expression
+	 * @throws IllegalStateException if the batch contains anonymous class expressions and the materialization is shared
+	 * @see #getSuperClassExpressions(Collection, boolean)
+	 */
+	public Map<OWLClassExpression, Set<OWLClass>> getSuperClassesOver(Collection<? extends OWLClassExpression> ces,
+			OWLObjectProperty p,
+			boolean direct) throws InconsistentOntologyException,
+			ClassExpressionNotInProfileException, FreshEntitiesException,
+			ReasonerInterruptedException, TimeOutException {
+		// materialize before adding the query classes
+		materializeExpressions(p);
+		Map<OWLClassExpression, Set<OWLClass>> results = new HashMap<OWLClassExpression, Set<OWLClass>>();
+		Map<OWLClassExpression, OWLClass> queryClasses = new HashMap<OWLClassExpression, OWLClass>();
+		Set<OWLAxiom> queryAxioms = new HashSet<OWLAxiom>();
+		try {
+			addQueryClasses(ces, queryClasses, queryAxioms);
+			for (OWLClassExpression ce : ces) {
+				OWLClass qc = queryClasses.get(ce);
+				// query classes are never helper classes, so they can not be in the results
+				results.put(ce, getSuperClassesOver(qc != null ? qc : ce, p, direct));
+			}
+		}
+		finally {
+			removeQueryClasses(queryAxioms);
+		}
+		return results;
+	}
+
+	/**
+	 * Add a named class for each anonymous class expression and classify once.
+	 * The query classes are named in the namespace of the expanded ontology,
+	 * so they can not clash with classes of the root ontology.
+	 * 
+	 * @param ces
+	 * @param queryClasses map to fill with the named class for each anonymous expression
+	 * @param queryAxioms set to fill with the added axioms, before they are added
+	 * @throws IllegalStateException if the expanded ontology is shared with other reasoners
+	 */
+	private void addQueryClasses(Collection<? extends OWLClassExpression> ces,
+			Map<OWLClassExpression, OWLClass> queryClasses, Set<OWLAxiom> queryAxioms) {
+		String namespace = expandedOntology.getOntologyID().getOntologyIRI().get()+"#__query";
+		Set<OWLAxiom> axioms = new HashSet<OWLAxiom>();
+		for (OWLClassExpression ce : ces) {
+			if (ce.isAnonymous() == false || queryClasses.containsKey(ce)) {
+				continue;
+			}
+			if (state.isFrozen()) {
+				throw new IllegalStateException("Batch queries with anonymous class expressions would modify the "
+						+ "shared materialization, use a separate reasoner or single queries");
+			}
+			queryClassCount += 1;
+			OWLClass qc = dataFactory.getOWLClass(IRI.create(namespace+queryClassCount));
+			queryClasses.put(ce, qc);
+			axioms.add(dataFactory.getOWLDeclarationAxiom(qc));
+			axioms.add(dataFactory.getOWLEquivalentClassesAxiom(qc, ce));
+		}
+		if (axioms.isEmpty() == false) {
+			// record first, the caller removes them if the change or the flush fails
+			queryAxioms.addAll(axioms);
+			manager.addAxioms(expandedOntology, axioms);
+			// not this.flush(), the temporary classes do not change the inferences
+			wrappedReasoner.flush();
+		}
+	}
+
+	private void removeQueryClasses(Set<OWLAxiom> axioms) {
+		if (axioms.isEmpty() == false) {
+			manager.removeAxioms(expandedOntology, axioms);
+			wrappedReasoner.flush();
+		}
+	}
+
+	/**
+	 * Superclasses of c, without the hidden classes. For direct superclasses,
+	 * hidden classes are replaced by their nearest visible superclasses.
+	 * 
+	 * @param c
+	 * @param direct
+	 * @param hidden
+	 * @return superclasses
+	 */
+	private Set<OWLClass> getSuperClasses(OWLClass c, boolean direct, Set<OWLClass> hidden) {
+		if (direct == false) {
+			Set<OWLClass> result = new HashSet<OWLClass>(wrappedReasoner.getSuperClasses(c, false).getFlattened());
+			result.removeAll(hidden);
+			return result;
+		}
+		Set<OWLClass> candidates = new HashSet<OWLClass>();
+		Set<OWLClass> visited = new HashSet<OWLClass>();
+		List<Node<OWLClass>> queue = new ArrayList<Node<OWLClass>>();
+		for (Node<OWLClass> node : wrappedReasoner.getSuperClasses(c, true)) {
+			queue.add(node);
+		}
+		while (queue.isEmpty() == false) {
+			Node<OWLClass> node = queue.remove(queue.size() - 1);
+			if (visited.add(node.getRepresentativeElement()) == false) {
+				continue;
+			}
+			Set<OWLClass> visible = new HashSet<OWLClass>(node.getEntities());
+			visible.removeAll(hidden);
+			if (visible.isEmpty() == false) {
+				candidates.addAll(visible);
+			}
+			else {
+				for (Node<OWLClass> superNode : wrappedReasoner.getSuperClasses(node.getRepresentativeElement(), true)) {
+					queue.add(superNode);
+				}
+			}
+		}
+		// replacing hidden classes can add indirect superclasses
+		Set<OWLClass> result = new HashSet<OWLClass>(candidates);
+		for (OWLClass candidate : candidates) {
+			result.removeAll(wrappedReasoner.getSuperClasses(candidate, false).getFlattened());
+		}
+		return result;
+	}
+
+	/**
+	 * Conjunctive query over the materialized expressions, for example all
+	 * classes which are "part_of some brain" and "has_part some axon".
+	 * 
+	 * The results are computed from bitmaps over the classes in the ontology
+	 * signature, properties are materialized and indexed on demand.
+	 * 
+	 * @param expressions expressions of the form "R some Y", with a named property and class
+	 * @return all classes, which are subclasses of all expressions
+	 * @see ExpressionMaterializingReasoner#setIncludeImports(boolean) if it should include imports
+	 */
+	public Set<OWLClass> getSubClassesOfAll(Collection<OWLObjectSomeValuesFrom> expressions) {
+		ExpressionBitmapIndex index = getIndex(expressions);
+		return index.toClasses(queryIndex(index, expressions, true));
+	}
+
+	/**
+	 * Disjunctive query over the materialized expressions.
+	 * 
+	 * @param expressions expressions of the form "R some Y", with a named property and class
+	 * @return all classes, which are subclasses of at least one of the expressions
+	 * @see ExpressionMaterializingReasoner#getSubClassesOfAll(Collection)
+	 */
+	public Set<OWLClass> getSubClassesOfAny(Collection<OWLObjectSomeValuesFrom> expressions) {
+		ExpressionBitmapIndex index = getIndex(expressions);
+		return index.toClasses(queryIndex(index, expressions, false));
+	}
+
+	/**
+	 * Count only variant of {@link #getSubClassesOfAll(Collection)}, e.g. for facet counts.
+	 * 
+	 * @param expressions
+	 * @return number of classes, which are subclasses of all expressions
+	 */
+	public int countSubClassesOfAll(Collection<OWLObjectSomeValuesFrom> expressions) {
+		return queryIndex(getIndex(expressions), expressions, true).cardinality();
+	}
+
+	/**
+	 * Count only variant of {@link #getSubClassesOfAny(Collection)}, e.g. for facet counts.
+	 * 
+	 * @param expressions
+	 * @return number of classes, which are subclasses of at least one of the expressions
+	 */
+	public int countSubClassesOfAny(Collection<OWLObjectSomeValuesFrom> expressions) {
+		return queryIndex(getIndex(expressions), expressions, false).cardinality();
+	}
+
+	private BitSet queryIndex(ExpressionBitmapIndex index, Collection<OWLObjectSomeValuesFrom> expressions, boolean conjunctive) {
+		List<OWLObjectProperty> properties = new ArrayList<OWLObjectProperty>(expressions.size());
+		List<OWLClass> fillers = new ArrayList<OWLClass>(expressions.size());
+		for (OWLObjectSomeValuesFrom x : expressions) {
+			properties.add(x.getProperty().asOWLObjectProperty());
+			fillers.add(x.getFiller().asOWLClass());
+		}
+		if (conjunctive) {
+			return index.and(properties, fillers);
+		}
+		return index.or(properties, fillers);
+	}
+
+	/**
+	 * @param expressions
+	 * @return index, which contains all properties of the expressions
+	 */
+	private ExpressionBitmapIndex getIndex(Collection<OWLObjectSomeValuesFrom> expressions) {
+		Set<OWLObjectProperty> properties = new HashSet<OWLObjectProperty>();
+		for (OWLObjectSomeValuesFrom x : expressions) {
+			if (x.getProperty().isAnonymous() || x.getFiller().isAnonymous()) {
+				throw new IllegalArgumentException("Only expressions with a named property and filler are supported: "+x);
+			}
+			properties.add(x.getProperty().asOWLObjectProperty());
+		}
+		materializeExpressions(properties);
+		ExpressionBitmapIndex index = bitmapIndex;
+		if (index == null) {
+			index = new ExpressionBitmapIndex(rootOntology.getClassesInSignature(Imports.fromBoolean(includeImports)));
+		}
+		for (OWLObjectProperty p : properties) {
+			if (index.isIndexed(p) == false) {
+				index.setIndexed(p);
+				populateIndex(index, p);
+			}
+		}
+		bitmapIndex = index;
+		return index;
+	}
+
+	/**
+	 * Add all subclasses of the materialized expressions for the property to the index.
+	 * 
+	 * @param index
+	 * @param p
+	 */
+	void populateIndex(ExpressionBitmapIndex index, OWLObjectProperty p) {
+		wrappedReasoner.flush();
+		for (Entry<OWLClass, OWLObjectSomeValuesFrom> e : cxMap.entrySet()) {
+			OWLObjectSomeValuesFrom x = e.getValue();
+			if (x.getProperty().equals(p) == false) {
+				continue;
+			}
+			OWLClass filler = x.getFiller().asOWLClass();
+			for (OWLClass sub : wrappedReasoner.getSubClasses(e.getKey(), false).getFlattened()) {
+				index.add(sub, p, filler);
+			}
+			for (OWLClass sub : wrappedReasoner.getEquivalentClasses(e.getKey())) {
+				index.add(sub, p, filler);
+			}
+		}
+	}
+
+	/**
+	 * @return the properties, for which expressions are returned by the queries
+	 */
+	Collection<OWLObjectProperty> getMaterializedProperties() {
+		return cachedProperties;
+	}
+
+	/**
+	 * Drop all data derived from the current state of the ontologies,
+	 * called after changes to the root ontology or its imports.
+	 */
+	void invalidate() {
+		bitmapIndex = null;
+		changedSinceSnapshot = true;
+	}
 
 	public String getReasonerName() {
 		return "Expression Materializing Reasoner";
@@ -304,8 +667,91 @@ public class ExpressionMaterializingReasoner extends OWLReasonerBase implements
 		return wrappedReasoner.getBufferingMode();
 	}
 
+	/**
+	 * Flushes the wrapped reasoner. If there are registered
+	 * {@link InferenceChangeListener}s, the inferences are compared with the
+	 * state after the previous flush and the listeners are notified about the
+	 * differences.
+	 * 
+	 * With listeners, a flush after changes of the ontologies or the
+	 * materialized properties costs |classes| &times; (1 + 2 |properties|)
+	 * queries of the reasoner, see {@link #addInferenceChangeListener(InferenceChangeListener)}.
+	 * A flush without such changes only flushes the wrapped reasoner.
+	 */
 	public void flush() {
+		if (inferenceListeners.isEmpty()) {
+			wrappedReasoner.flush();
+			return;
+		}
+		if (lastSnapshot != null && changedSinceSnapshot == false
+				&& wrappedReasoner.getPendingChanges().isEmpty()
+				&& lastSnapshotProperties.equals(new HashSet<OWLObjectProperty>(getMaterializedProperties()))) {
+			// nothing can have changed since the last snapshot
+			wrappedReasoner.flush();
+			return;
+		}
+		InferenceDelta.Snapshot before = lastSnapshot;
+		if (before == null) {
+			before = takeSnapshot();
+		}
 		wrappedReasoner.flush();
+		InferenceDelta.Snapshot after = takeSnapshot();
+		lastSnapshot = after;
+		InferenceDelta delta = InferenceDelta.diff(before, after);
+		if (delta.isEmpty() == false) {
+			for (InferenceChangeListener listener : inferenceListeners) {
+				listener.inferencesChanged(delta);
+			}
+		}
+	}
+
+	/**
+	 * Register a listener for changes of the inferences. The current
+	 * inferences are recorded as the baseline for the next flush.
+	 * 
+	 * Computing the changes requires querying all classes for all
+	 * materialized properties after each flush with changes: the superclass
+	 * expressions and the direct and indirect fillers per property, that is
+	 * |classes| &times; (1 + 2 |properties|) queries of the reasoner. The
+	 * first listener records the baseline with the same number of queries.
+	 * 
+	 * @param listener
+	 */
+	public void addInferenceChangeListener(InferenceChangeListener listener) {
+		if (lastSnapshot == null) {
+			lastSnapshot = takeSnapshot();
+		}
+		inferenceListeners.add(listener);
+	}
+
+	/**
+	 * @param listener
+	 */
+	public void removeInferenceChangeListener(InferenceChangeListener listener) {
+		inferenceListeners.remove(listener);
+		if (inferenceListeners.isEmpty()) {
+			lastSnapshot = null;
+			lastSnapshotProperties = null;
+		}
+	}
+
+	private InferenceDelta.Snapshot takeSnapshot() {
+		InferenceDelta.Snapshot snapshot = new InferenceDelta.Snapshot();
+		List<OWLObjectProperty> properties = new ArrayList<OWLObjectProperty>(getMaterializedProperties());
+		lastSnapshotProperties = new HashSet<OWLObjectProperty>(properties);
+		changedSinceSnapshot = false;
+		for (OWLClass c : rootOntology.getClassesInSignature(Imports.fromBoolean(includeImports))) {
+			snapshot.ancestors.put(c, getSuperClassExpressions(c, false));
+			for (OWLObjectProperty p : properties) {
+				for (OWLClass filler : getSuperClassesOver(c, p, true)) {
+					snapshot.edges.add(new InferenceDelta.Edge(c, p, filler, true));
+				}
+				for (OWLClass filler : getSuperClassesOver(c, p, false)) {
+					snapshot.edges.add(new InferenceDelta.Edge(c, p, filler, false));
+				}
+			}
+		}
+		return snapshot;
 	}
 
 	public List<OWLOntologyChange> getPendingChanges() {
@@ -324,8 +770,17 @@ public class ExpressionMaterializingReasoner extends OWLReasonerBase implements
 		return wrappedReasoner.getRootOntology();
 	}
 
+	/**
+	 * Interrupts a running materialization or otherwise the wrapped reasoner.
+	 */
 	public void interrupt() {
-		wrappedReasoner.interrupt();
+		ReasonerTask task = currentTask;
+		if (task != null) {
+			task.interrupt();
+		}
+		else {
+			wrappedReasoner.interrupt();
+		}
 	}
 
 	public void precomputeInferences(InferenceType... inferenceTypes)
@@ -567,7 +1022,16 @@ public class ExpressionMaterializingReasoner extends OWLReasonerBase implements
 	}
 
 	public void dispose() {
-		wrappedReasoner.dispose();
+		synchronized (this) {
+			// the state may be shared, release it exactly once per reasoner
+			if (disposed) {
+				return;
+			}
+			disposed = true;
+		}
+		manager.removeOntologyChangeListener(changeListener);
+		super.dispose();
+		state.release();
 	}
 
 	@Override
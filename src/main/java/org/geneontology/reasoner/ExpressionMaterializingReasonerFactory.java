@@ -1,19 +1,34 @@
 package org.geneontology.reasoner;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.semanticweb.owlapi.model.OWLObjectProperty;
 import org.semanticweb.owlapi.model.OWLOntology;
 import org.semanticweb.owlapi.reasoner.BufferingMode;
 import org.semanticweb.owlapi.reasoner.IllegalConfigurationException;
 import org.semanticweb.owlapi.reasoner.OWLReasonerConfiguration;
 import org.semanticweb.owlapi.reasoner.OWLReasonerFactory;
+import org.semanticweb.owlapi.reasoner.ReasonerInterruptedException;
 import org.semanticweb.owlapi.reasoner.SimpleConfiguration;
 
 /**
  * Simple OWL-API {@link OWLReasonerFactory} for instantiating an
  * {@link ExpressionMaterializingReasoner}.
+ * 
+ * Besides the standard methods, which always create a new materialization,
+ * the factory can hand out reasoners sharing one materialization for the same
+ * root ontology and property set, see
+ * {@link #createSharedReasoner(OWLOntology, Collection)}.
  */
 public class ExpressionMaterializingReasonerFactory implements OWLExtendedReasonerFactory<ExpressionMaterializingReasoner> {
 
 	private final OWLReasonerFactory factory;
+	private final Map<SharedKey, SharedEntry> sharedStates = new HashMap<SharedKey, SharedEntry>();
+
     public ExpressionMaterializingReasonerFactory(OWLReasonerFactory factory) {
 		super();
 		this.factory = factory;
@@ -40,4 +55,176 @@ public class ExpressionMaterializingReasonerFactory implements OWLExtendedReason
     	ExpressionMaterializingReasoner r = new ExpressionMaterializingReasoner(ontology, factory, config, BufferingMode.BUFFERING);
         return r;
     }
+
+    /**
+     * Create a reasoner for the ontology, which shares the materialization and
+     * classification with all other reasoners created by this factory for the
+     * same ontology instance and the same set of properties.
+     * 
+     * The set of materialized properties is fixed: querying over a property
+     * not in the given collection will throw an {@link IllegalStateException}.
+     * The ontology itself is not: changes of the root ontology reach the
+     * shared wrapped reasoner on the next flush, but classes added after the
+     * materialization get no helper classes, so expressions with them as
+     * filler are missing from the results. Use non shared reasoners for
+     * ontologies which are edited.
+     * 
+     * The reasoners share one wrapped reasoner, which is not synchronized.
+     * They must not be queried or flushed concurrently from several threads.
+     * The shared state is released, when the last reasoner using it is disposed.
+     * 
+     * @param ontology
+     * @param properties
+     * @return reasoner
+     */
+    public ExpressionMaterializingReasoner createSharedReasoner(OWLOntology ontology, Collection<OWLObjectProperty> properties) {
+        return createSharedReasoner(ontology, properties, new SimpleConfiguration());
+    }
+
+    /**
+     * Create a reasoner for the ontology, which shares the materialization and
+     * classification with all other reasoners created by this factory for the
+     * same ontology instance and the same set of properties. The configuration
+     * is only used, if a new shared materialization has to be created.
+     * 
+     * The materialization runs outside of the factory lock: concurrent calls
+     * for the same key wait for it, calls for other keys are not blocked.
+     * 
+     * @param ontology
+     * @param properties
+     * @param config
+     * @return reasoner
+     * @see #createSharedReasoner(OWLOntology, Collection)
+     */
+    public ExpressionMaterializingReasoner createSharedReasoner(OWLOntology ontology,
+            Collection<OWLObjectProperty> properties, OWLReasonerConfiguration config) {
+        final SharedKey key = new SharedKey(ontology, properties);
+        while (true) {
+            SharedEntry entry;
+            boolean owner = false;
+            synchronized (this) {
+                entry = sharedStates.get(key);
+                if (entry == null) {
+                    entry = new SharedEntry();
+                    sharedStates.put(key, entry);
+                    owner = true;
+                }
+            }
+            if (owner) {
+                // materialize outside of the lock, only calls for the same key wait
+                return createSharedState(key, entry, config);
+            }
+            MaterializationState state = entry.await();
+            if (state != null && state.retain()) {
+                return new ExpressionMaterializingReasoner(state, config, BufferingMode.BUFFERING);
+            }
+            // the materialization failed or has been released in the meantime, try again
+            removeEntry(key, entry);
+        }
+    }
+
+    private ExpressionMaterializingReasoner createSharedState(final SharedKey key, final SharedEntry entry,
+            OWLReasonerConfiguration config) {
+        ExpressionMaterializingReasoner r = null;
+        boolean success = false;
+        try {
+            MaterializationState state = new MaterializationState(key.ontology, factory, config, BufferingMode.BUFFERING);
+            state.retain();
+            r = new ExpressionMaterializingReasoner(state, config, BufferingMode.BUFFERING);
+            r.materializeExpressions(key.properties);
+            state.freeze();
+            state.setReleaseHook(new Runnable() {
+
+                @Override
+                public void run() {
+                    removeEntry(key, entry);
+                }
+            });
+            entry.complete(state);
+            success = true;
+            return r;
+        }
+        finally {
+            if (success == false) {
+                removeEntry(key, entry);
+                entry.complete(null);
+                if (r != null) {
+                    r.dispose();
+                }
+            }
+        }
+    }
+
+    private synchronized void removeEntry(SharedKey key, SharedEntry entry) {
+        if (sharedStates.get(key) == entry) {
+            sharedStates.remove(key);
+        }
+    }
+
+    /**
+     * Registry entry for a shared materialization, which is registered before
+     * the materialization starts. Other calls for the same key wait for it.
+     */
+    private static class SharedEntry {
+
+        private MaterializationState state = null;
+        private boolean done = false;
+
+        /**
+         * @param state the materialized state or null, if the materialization failed
+         */
+        synchronized void complete(MaterializationState state) {
+            this.state = state;
+            done = true;
+            notifyAll();
+        }
+
+        /**
+         * @return the materialized state or null, if the materialization failed
+         * @throws ReasonerInterruptedException if the thread is interrupted while waiting
+         */
+        synchronized MaterializationState await() throws ReasonerInterruptedException {
+            while (done == false) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ReasonerInterruptedException("Interrupted while waiting for the shared materialization");
+                }
+            }
+            return state;
+        }
+    }
+
+    /**
+     * Registry key for shared materializations: the identity of the root
+     * ontology and the set of materialized properties.
+     */
+    private static class SharedKey {
+
+        private final OWLOntology ontology;
+        private final Set<OWLObjectProperty> properties;
+
+        SharedKey(OWLOntology ontology, Collection<OWLObjectProperty> properties) {
+            this.ontology = ontology;
+            this.properties = new HashSet<OWLObjectProperty>(properties);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(ontology) + properties.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj instanceof SharedKey == false) {
+                return false;
+            }
+            SharedKey other = (SharedKey) obj;
+            return ontology == other.ontology && properties.equals(other.properties);
+        }
+    }
 }
@@ -0,0 +1,18 @@
+package org.geneontology.reasoner;
+
+/**
+ * Listener for changes of the inferred expression relations of an
+ * {@link ExpressionMaterializingReasoner}, e.g. for incrementally updating
+ * a search index.
+ * 
+ * @see ExpressionMaterializingReasoner#addInferenceChangeListener(InferenceChangeListener)
+ */
+public interface InferenceChangeListener {
+
+	/**
+	 * Called after a flush or materialization, which changed the inferences.
+	 * 
+	 * @param delta the added and removed inferences, never empty
+	 */
+	public void inferencesChanged(InferenceDelta delta);
+}
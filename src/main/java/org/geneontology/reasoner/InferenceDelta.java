@@ -0,0 +1,172 @@
+package org.geneontology.reasoner;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLObjectProperty;
+
+/**
+ * The added and removed inferences between two states of an
+ * {@link ExpressionMaterializingReasoner}.
+ * 
+ * Covers the class to (property, filler) edges as returned by
+ * {@link OWLExtendedReasoner#getSuperClassesOver(OWLClassExpression, OWLObjectProperty, boolean)}
+ * for direct and indirect results, and the expression ancestors as returned
+ * by {@link OWLExtendedReasoner#getSuperClassExpressions(OWLClassExpression, boolean)}
+ * with direct set to false.
+ */
+public class InferenceDelta {
+
+	/**
+	 * An inferred edge: cls SubClassOf property some filler.
+	 */
+	public static class Edge {
+
+		private final OWLClass cls;
+		private final OWLObjectProperty property;
+		private final OWLClass filler;
+		private final boolean direct;
+
+		Edge(OWLClass cls, OWLObjectProperty property, OWLClass filler, boolean direct) {
+			this.cls = cls;
+			this.property = property;
+			this.filler = filler;
+			this.direct = direct;
+		}
+
+		public OWLClass getCls() {
+			return cls;
+		}
+
+		public OWLObjectProperty getProperty() {
+			return property;
+		}
+
+		public OWLClass getFiller() {
+			return filler;
+		}
+
+		/**
+		 * @return true for an edge of the direct results, false for the indirect results
+		 */
+		public boolean isDirect() {
+			return direct;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + cls.hashCode();
+			result = prime * result + property.hashCode();
+			result = prime * result + filler.hashCode();
+			result = prime * result + (direct ? 1231 : 1237);
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (obj instanceof Edge == false) {
+				return false;
+			}
+			Edge other = (Edge) obj;
+			return direct == other.direct && cls.equals(other.cls)
+					&& property.equals(other.property) && filler.equals(other.filler);
+		}
+
+		@Override
+		public String toString() {
+			return cls+" "+property+" "+filler+(direct ? " (direct)" : "");
+		}
+	}
+
+	/**
+	 * The inferences of a reasoner at one point in time.
+	 */
+	static class Snapshot {
+
+		final Set<Edge> edges = new HashSet<Edge>();
+		final Map<OWLClass, Set<OWLClassExpression>> ancestors = new HashMap<OWLClass, Set<OWLClassExpression>>();
+	}
+
+	private final Set<Edge> addedEdges;
+	private final Set<Edge> removedEdges;
+	private final Map<OWLClass, Set<OWLClassExpression>> addedAncestors;
+	private final Map<OWLClass, Set<OWLClassExpression>> removedAncestors;
+
+	private InferenceDelta(Set<Edge> addedEdges, Set<Edge> removedEdges,
+			Map<OWLClass, Set<OWLClassExpression>> addedAncestors,
+			Map<OWLClass, Set<OWLClassExpression>> removedAncestors) {
+		this.addedEdges = addedEdges;
+		this.removedEdges = removedEdges;
+		this.addedAncestors = addedAncestors;
+		this.removedAncestors = removedAncestors;
+	}
+
+	static InferenceDelta diff(Snapshot before, Snapshot after) {
+		Set<Edge> addedEdges = new HashSet<Edge>(after.edges);
+		addedEdges.removeAll(before.edges);
+		Set<Edge> removedEdges = new HashSet<Edge>(before.edges);
+		removedEdges.removeAll(after.edges);
+		return new InferenceDelta(addedEdges, removedEdges,
+				diff(after.ancestors, before.ancestors),
+				diff(before.ancestors, after.ancestors));
+	}
+
+	/**
+	 * @param source
+	 * @param other
+	 * @return all entries in source, which are not in other
+	 */
+	private static Map<OWLClass, Set<OWLClassExpression>> diff(Map<OWLClass, Set<OWLClassExpression>> source,
+			Map<OWLClass, Set<OWLClassExpression>> other) {
+		Map<OWLClass, Set<OWLClassExpression>> result = new HashMap<OWLClass, Set<OWLClassExpression>>();
+		for (Entry<OWLClass, Set<OWLClassExpression>> e : source.entrySet()) {
+			Set<OWLClassExpression> ces = new HashSet<OWLClassExpression>(e.getValue());
+			Set<OWLClassExpression> otherCes = other.get(e.getKey());
+			if (otherCes != null) {
+				ces.removeAll(otherCes);
+			}
+			if (ces.isEmpty() == false) {
+				result.put(e.getKey(), ces);
+			}
+		}
+		return result;
+	}
+
+	public Set<Edge> getAddedEdges() {
+		return Collections.unmodifiableSet(addedEdges);
+	}
+
+	public Set<Edge> getRemovedEdges() {
+		return Collections.unmodifiableSet(removedEdges);
+	}
+
+	/**
+	 * @return new expression ancestors by class
+	 */
+	public Map<OWLClass, Set<OWLClassExpression>> getAddedAncestors() {
+		return Collections.unmodifiableMap(addedAncestors);
+	}
+
+	/**
+	 * @return removed expression ancestors by class
+	 */
+	public Map<OWLClass, Set<OWLClassExpression>> getRemovedAncestors() {
+		return Collections.unmodifiableMap(removedAncestors);
+	}
+
+	public boolean isEmpty() {
+		return addedEdges.isEmpty() && removedEdges.isEmpty()
+				&& addedAncestors.isEmpty() && removedAncestors.isEmpty();
+	}
+}
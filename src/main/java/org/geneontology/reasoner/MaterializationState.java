@@ -0,0 +1,162 @@
+package org.geneontology.reasoner;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.semanticweb.owlapi.model.AddImport;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLObjectProperty;
+import org.semanticweb.owlapi.model.OWLObjectSomeValuesFrom;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.OWLOntologyID;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.model.SetOntologyID;
+import org.semanticweb.owlapi.model.UnknownOWLOntologyException;
+import org.semanticweb.owlapi.reasoner.BufferingMode;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+import org.semanticweb.owlapi.reasoner.OWLReasonerConfiguration;
+import org.semanticweb.owlapi.reasoner.OWLReasonerFactory;
+
+import com.google.common.base.Optional;
+
+/**
+ * The materialized state behind an {@link ExpressionMaterializingReasoner}:
+ * the expanded ontology with the helper classes, the wrapped reasoner and
+ * the mapping from helper classes to the expressions they stand for.
+ *
+ * A state can be shared by several reasoners, see
+ * {@link ExpressionMaterializingReasonerFactory#createSharedReasoner(OWLOntology, java.util.Collection)}.
+ * It is reference counted, the expanded ontology and wrapped reasoner are
+ * disposed once the last reasoner using it has been disposed. Only the
+ * reference counting is thread safe, the wrapped reasoner and the maps are
+ * not synchronized. A frozen state accepts no further properties, but still
+ * follows the changes of the root ontology.
+ */
+class MaterializationState {
+
+	final OWLOntology rootOntology;
+	final OWLOntologyManager manager;
+	final OWLDataFactory dataFactory;
+	final OWLOntology expandedOntology;
+	final OWLReasoner wrappedReasoner;
+	final Set<OWLObjectProperty> cachedProperties;
+	final Map<OWLClass,OWLObjectSomeValuesFrom> cxMap;
+
+	private int references = 0;
+	private boolean released = false;
+	private boolean frozen = false;
+	private Runnable releaseHook = null;
+
+	MaterializationState(OWLOntology rootOntology,
+			OWLReasonerFactory reasonerFactory,
+			OWLReasonerConfiguration configuration, BufferingMode bufferingMode) {
+		try {
+			this.rootOntology = rootOntology;
+			manager = rootOntology.getOWLOntologyManager();
+			dataFactory = manager.getOWLDataFactory();
+			expandedOntology = createExpandedOntologyStub(rootOntology);
+			if (BufferingMode.NON_BUFFERING == bufferingMode) {
+				wrappedReasoner = reasonerFactory.createReasoner(expandedOntology, configuration);
+			}
+			else {
+				wrappedReasoner = reasonerFactory.createNonBufferingReasoner(expandedOntology, configuration);
+			}
+		} catch (UnknownOWLOntologyException e) {
+			throw new RuntimeException("Could not setup reasoner", e);
+		} catch (OWLOntologyCreationException e) {
+			throw new RuntimeException("Could not setup reasoner", e);
+		}
+		cachedProperties = new HashSet<OWLObjectProperty>();
+		cxMap = new HashMap<OWLClass, OWLObjectSomeValuesFrom>();
+	}
+
+	/**
+	 * @param rootOntology
+	 * @return ontology
+	 * @throws OWLOntologyCreationException
+	 */
+	private OWLOntology createExpandedOntologyStub(OWLOntology rootOntology)
+			throws OWLOntologyCreationException {
+		OWLOntology expandedOntology = manager.createOntology(IRI.generateDocumentIRI());
+		IRI rootOntologyIRI;
+		OWLOntologyID rootId = rootOntology.getOntologyID();
+		if (rootId == null) {
+			rootOntologyIRI = IRI.generateDocumentIRI();
+			manager.applyChange(new SetOntologyID(rootOntology, rootOntologyIRI));
+		}
+		else {
+			Optional<IRI> optional = rootId.getOntologyIRI();
+			if (optional.isPresent() == false) {
+				rootOntologyIRI = IRI.generateDocumentIRI();
+				manager.applyChange(new SetOntologyID(rootOntology, rootOntologyIRI));
+			}
+			else {
+				rootOntologyIRI = optional.get();
+			}
+		}
+		AddImport ai = new AddImport(expandedOntology,
+				dataFactory.getOWLImportsDeclaration(rootOntologyIRI));
+		manager.applyChange(ai);
+		return expandedOntology;
+	}
+
+	/**
+	 * Register an additional user of this state.
+	 *
+	 * @return false, if the state has already been released and can not be used anymore
+	 */
+	synchronized boolean retain() {
+		if (released) {
+			return false;
+		}
+		references += 1;
+		return true;
+	}
+
+	/**
+	 * Unregister a user of this state. The last call disposes the wrapped
+	 * reasoner and removes the expanded ontology from the manager.
+	 */
+	void release() {
+		synchronized (this) {
+			if (released) {
+				return;
+			}
+			references -= 1;
+			if (references > 0) {
+				return;
+			}
+			released = true;
+		}
+		// outside of the lock, the hook may synchronize on the owning factory
+		if (releaseHook != null) {
+			releaseHook.run();
+		}
+		wrappedReasoner.dispose();
+		manager.removeOntology(expandedOntology);
+	}
+
+	synchronized boolean isReleased() {
+		return released;
+	}
+
+	/**
+	 * Prevent any further materialization, used for shared states.
+	 */
+	synchronized void freeze() {
+		frozen = true;
+	}
+
+	synchronized boolean isFrozen() {
+		return frozen;
+	}
+
+	void setReleaseHook(Runnable releaseHook) {
+		this.releaseHook = releaseHook;
+	}
+}
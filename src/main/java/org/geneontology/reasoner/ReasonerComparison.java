@@ -0,0 +1,432 @@
+package org.geneontology.reasoner;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLObject;
+import org.semanticweb.owlapi.model.OWLObjectProperty;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.reasoner.OWLReasonerFactory;
+
+/**
+ * Runs the same materialization and query workload through several
+ * backends and reports the resource usage per phase as well as the
+ * differences in the results.
+ *
+ * The first added backend is the baseline, all other backends are compared
+ * against it. This is intended to choose a backend for a given ontology and
+ * to detect changes in the results or performance after a backend upgrade.
+ *
+ * CPU time is the CPU time of the whole process, so the work of backends
+ * classifying on their own worker threads is included. Retained heap is the
+ * used heap after a garbage collection requested at the end of each phase,
+ * that is the memory still referenced by the backend and the rest of the
+ * JVM, not the transient allocations of the phase. Both include the activity
+ * of other threads, for example the garbage collector, so backends should be
+ * compared in separate runs if precise numbers are required.
+ */
+public class ReasonerComparison {
+
+	/**
+	 * The measured phases of the workload.
+	 */
+	public static enum Phase {
+		CREATE,
+		MATERIALIZE,
+		SUPER_CLASS_EXPRESSIONS,
+		SUPER_CLASSES_OVER
+	}
+
+	/**
+	 * Resources used by one backend in one phase.
+	 */
+	public static class PhaseMetrics {
+
+		private final long wallTimeNanos;
+		private final long cpuTimeNanos;
+		private final long retainedHeapBytes;
+
+		PhaseMetrics(long wallTimeNanos, long cpuTimeNanos, long retainedHeapBytes) {
+			this.wallTimeNanos = wallTimeNanos;
+			this.cpuTimeNanos = cpuTimeNanos;
+			this.retainedHeapBytes = retainedHeapBytes;
+		}
+
+		public long getWallTimeNanos() {
+			return wallTimeNanos;
+		}
+
+		/**
+		 * @return CPU time of the process or -1, if not supported by the JVM
+		 */
+		public long getCpuTimeNanos() {
+			return cpuTimeNanos;
+		}
+
+		/**
+		 * @return used heap after a garbage collection at the end of the phase
+		 */
+		public long getRetainedHeapBytes() {
+			return retainedHeapBytes;
+		}
+
+		@Override
+		public String toString() {
+			return "wall="+(wallTimeNanos / 1000000L)+"ms cpu="+(cpuTimeNanos / 1000000L)
+					+"ms retainedHeap="+(retainedHeapBytes / (1024L * 1024L))+"MB";
+		}
+	}
+
+	/**
+	 * Metrics and query results of one backend.
+	 */
+	public static class BackendResult {
+
+		private final String name;
+		private final Map<Phase, PhaseMetrics> metrics = new EnumMap<Phase, PhaseMetrics>(Phase.class);
+		private final Map<OWLClass, Set<OWLClassExpression>> superClassExpressions = new HashMap<OWLClass, Set<OWLClassExpression>>();
+		private final Map<OWLClass, Map<OWLObjectProperty, Set<OWLClass>>> superClassesOver = new HashMap<OWLClass, Map<OWLObjectProperty,Set<OWLClass>>>();
+
+		BackendResult(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public Map<Phase, PhaseMetrics> getMetrics() {
+			return Collections.unmodifiableMap(metrics);
+		}
+
+		public Map<OWLClass, Set<OWLClassExpression>> getSuperClassExpressions() {
+			return Collections.unmodifiableMap(superClassExpressions);
+		}
+
+		public Map<OWLClass, Map<OWLObjectProperty, Set<OWLClass>>> getSuperClassesOver() {
+			return Collections.unmodifiableMap(superClassesOver);
+		}
+	}
+
+	/**
+	 * Difference of the results for one class and query.
+	 */
+	public static class ClassDiff {
+
+		private final OWLClass cls;
+		private final OWLObjectProperty property;
+		private final Set<OWLObject> onlyInBaseline;
+		private final Set<OWLObject> onlyInOther;
+
+		ClassDiff(OWLClass cls, OWLObjectProperty property, Set<OWLObject> onlyInBaseline, Set<OWLObject> onlyInOther) {
+			this.cls = cls;
+			this.property = property;
+			this.onlyInBaseline = onlyInBaseline;
+			this.onlyInOther = onlyInOther;
+		}
+
+		public OWLClass getCls() {
+			return cls;
+		}
+
+		/**
+		 * @return property for {@link Phase#SUPER_CLASSES_OVER} differences, null otherwise
+		 */
+		public OWLObjectProperty getProperty() {
+			return property;
+		}
+
+		public Set<OWLObject> getOnlyInBaseline() {
+			return onlyInBaseline;
+		}
+
+		public Set<OWLObject> getOnlyInOther() {
+			return onlyInOther;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(cls);
+			if (property != null) {
+				sb.append(' ').append(property);
+			}
+			sb.append(" baseline only: ").append(onlyInBaseline);
+			sb.append(" other only: ").append(onlyInOther);
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * All result differences between the baseline and one other backend.
+	 */
+	public static class BackendDiff {
+
+		private final String baseline;
+		private final String other;
+		private final List<ClassDiff> superClassExpressionDiffs = new ArrayList<ClassDiff>();
+		private final List<ClassDiff> superClassesOverDiffs = new ArrayList<ClassDiff>();
+
+		BackendDiff(String baseline, String other) {
+			this.baseline = baseline;
+			this.other = other;
+		}
+
+		public String getBaseline() {
+			return baseline;
+		}
+
+		public String getOther() {
+			return other;
+		}
+
+		public List<ClassDiff> getSuperClassExpressionDiffs() {
+			return Collections.unmodifiableList(superClassExpressionDiffs);
+		}
+
+		public List<ClassDiff> getSuperClassesOverDiffs() {
+			return Collections.unmodifiableList(superClassesOverDiffs);
+		}
+
+		public boolean isEmpty() {
+			return superClassExpressionDiffs.isEmpty() && superClassesOverDiffs.isEmpty();
+		}
+	}
+
+	/**
+	 * Result of a comparison run.
+	 */
+	public static class Report {
+
+		private final List<BackendResult> results;
+		private final List<BackendDiff> diffs;
+
+		Report(List<BackendResult> results, List<BackendDiff> diffs) {
+			this.results = results;
+			this.diffs = diffs;
+		}
+
+		public List<BackendResult> getResults() {
+			return Collections.unmodifiableList(results);
+		}
+
+		public List<BackendDiff> getDiffs() {
+			return Collections.unmodifiableList(diffs);
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			for (BackendResult result : results) {
+				for (Entry<Phase, PhaseMetrics> e : result.metrics.entrySet()) {
+					sb.append(result.name).append(' ').append(e.getKey()).append(' ').append(e.getValue()).append('\n');
+				}
+			}
+			for (BackendDiff diff : diffs) {
+				sb.append(diff.baseline).append(" vs ").append(diff.other).append(": ");
+				sb.append(diff.superClassExpressionDiffs.size()).append(" superClassExpressions differences, ");
+				sb.append(diff.superClassesOverDiffs.size()).append(" superClassesOver differences\n");
+				for (ClassDiff classDiff : diff.superClassExpressionDiffs) {
+					sb.append("  ").append(classDiff).append('\n');
+				}
+				for (ClassDiff classDiff : diff.superClassesOverDiffs) {
+					sb.append("  ").append(classDiff).append('\n');
+				}
+			}
+			return sb.toString();
+		}
+	}
+
+	private final OWLOntology ontology;
+	private final Set<OWLObjectProperty> properties;
+	private final Map<String, OWLExtendedReasonerFactory<? extends ExpressionMaterializingReasoner>> backends;
+	private boolean direct = true;
+
+	/**
+	 * @param ontology
+	 * @param properties the properties to materialize and query over
+	 */
+	public ReasonerComparison(OWLOntology ontology, Collection<OWLObjectProperty> properties) {
+		this.ontology = ontology;
+		this.properties = new LinkedHashSet<OWLObjectProperty>(properties);
+		this.backends = new LinkedHashMap<String, OWLExtendedReasonerFactory<? extends ExpressionMaterializingReasoner>>();
+	}
+
+	/**
+	 * Add a backend, which will be wrapped in an {@link ExpressionMaterializingReasonerFactory}.
+	 *
+	 * @param name
+	 * @param factory
+	 */
+	public void addBackend(String name, OWLReasonerFactory factory) {
+		addBackend(name, new ExpressionMaterializingReasonerFactory(factory));
+	}
+
+	/**
+	 * @param name
+	 * @param factory
+	 */
+	public void addBackend(String name, OWLExtendedReasonerFactory<? extends ExpressionMaterializingReasoner> factory) {
+		if (backends.containsKey(name)) {
+			throw new IllegalArgumentException("Duplicate backend name: "+name);
+		}
+		backends.put(name, factory);
+	}
+
+	/**
+	 * @param direct if the queries should only retrieve direct super classes, default is true
+	 */
+	public void setDirect(boolean direct) {
+		this.direct = direct;
+	}
+
+	/**
+	 * Run the workload for all backends in the order they were added and
+	 * compare the results against the first backend.
+	 *
+	 * @return report
+	 */
+	public Report run() {
+		List<BackendResult> results = new ArrayList<BackendResult>();
+		for (Entry<String, OWLExtendedReasonerFactory<? extends ExpressionMaterializingReasoner>> e : backends.entrySet()) {
+			results.add(run(e.getKey(), e.getValue()));
+		}
+		List<BackendDiff> diffs = new ArrayList<BackendDiff>();
+		for (int i = 1; i < results.size(); i++) {
+			diffs.add(diff(results.get(0), results.get(i)));
+		}
+		return new Report(results, diffs);
+	}
+
+	private BackendResult run(String name, OWLExtendedReasonerFactory<? extends ExpressionMaterializingReasoner> factory) {
+		BackendResult result = new BackendResult(name);
+		Set<OWLClass> classes = ontology.getClassesInSignature();
+
+		Measurement m = new Measurement();
+		ExpressionMaterializingReasoner reasoner = factory.createReasoner(ontology);
+		result.metrics.put(Phase.CREATE, m.stop());
+		try {
+			m = new Measurement();
+			reasoner.materializeExpressions(properties);
+			result.metrics.put(Phase.MATERIALIZE, m.stop());
+
+			m = new Measurement();
+			for (OWLClass cls : classes) {
+				result.superClassExpressions.put(cls, reasoner.getSuperClassExpressions(cls, direct));
+			}
+			result.metrics.put(Phase.SUPER_CLASS_EXPRESSIONS, m.stop());
+
+			m = new Measurement();
+			for (OWLClass cls : classes) {
+				Map<OWLObjectProperty, Set<OWLClass>> byProperty = new HashMap<OWLObjectProperty, Set<OWLClass>>();
+				for (OWLObjectProperty p : properties) {
+					byProperty.put(p, reasoner.getSuperClassesOver(cls, p, direct));
+				}
+				result.superClassesOver.put(cls, byProperty);
+			}
+			result.metrics.put(Phase.SUPER_CLASSES_OVER, m.stop());
+		}
+		finally {
+			reasoner.dispose();
+		}
+		return result;
+	}
+
+	private BackendDiff diff(BackendResult baseline, BackendResult other) {
+		BackendDiff diff = new BackendDiff(baseline.name, other.name);
+		Set<OWLClass> classes = new HashSet<OWLClass>(baseline.superClassExpressions.keySet());
+		classes.addAll(other.superClassExpressions.keySet());
+		for (OWLClass cls : classes) {
+			ClassDiff classDiff = diff(cls, null,
+					baseline.superClassExpressions.get(cls), other.superClassExpressions.get(cls));
+			if (classDiff != null) {
+				diff.superClassExpressionDiffs.add(classDiff);
+			}
+			Map<OWLObjectProperty, Set<OWLClass>> baselineOver = baseline.superClassesOver.get(cls);
+			Map<OWLObjectProperty, Set<OWLClass>> otherOver = other.superClassesOver.get(cls);
+			for (OWLObjectProperty p : properties) {
+				classDiff = diff(cls, p,
+						baselineOver != null ? baselineOver.get(p) : null,
+						otherOver != null ? otherOver.get(p) : null);
+				if (classDiff != null) {
+					diff.superClassesOverDiffs.add(classDiff);
+				}
+			}
+		}
+		return diff;
+	}
+
+	private static ClassDiff diff(OWLClass cls, OWLObjectProperty p,
+			Set<? extends OWLObject> baseline, Set<? extends OWLObject> other) {
+		Set<OWLObject> onlyInBaseline = new HashSet<OWLObject>();
+		if (baseline != null) {
+			onlyInBaseline.addAll(baseline);
+		}
+		Set<OWLObject> onlyInOther = new HashSet<OWLObject>();
+		if (other != null) {
+			onlyInOther.addAll(other);
+			onlyInBaseline.removeAll(other);
+		}
+		if (baseline != null) {
+			onlyInOther.removeAll(baseline);
+		}
+		if (onlyInBaseline.isEmpty() && onlyInOther.isEmpty()) {
+			return null;
+		}
+		return new ClassDiff(cls, p, onlyInBaseline, onlyInOther);
+	}
+
+	/**
+	 * Measures wall time and CPU time of the process from its creation until
+	 * {@link #stop()}, and the retained heap at {@link #stop()}.
+	 */
+	private static class Measurement {
+
+		private static final OperatingSystemMXBean OS = ManagementFactory.getOperatingSystemMXBean();
+		private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+		private final long wallStart;
+		private final long cpuStart;
+
+		Measurement() {
+			cpuStart = cpuTime();
+			wallStart = System.nanoTime();
+		}
+
+		PhaseMetrics stop() {
+			long wall = System.nanoTime() - wallStart;
+			long cpu = cpuStart < 0 ? -1 : cpuTime() - cpuStart;
+			// the sum of the pool peaks mostly reflects the size of the young
+			// generation, the heap after a collection what the backend keeps
+			MEMORY.gc();
+			long retainedHeap = MEMORY.getHeapMemoryUsage().getUsed();
+			return new PhaseMetrics(wall, cpu, retainedHeap);
+		}
+
+		/**
+		 * @return CPU time of all threads of the process, the backends may
+		 * classify on their own worker threads
+		 */
+		private static long cpuTime() {
+			if (OS instanceof com.sun.management.OperatingSystemMXBean) {
+				return ((com.sun.management.OperatingSystemMXBean) OS).getProcessCpuTime();
+			}
+			return -1;
+		}
+	}
+}
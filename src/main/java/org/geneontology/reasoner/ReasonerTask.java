@@ -0,0 +1,90 @@
+package org.geneontology.reasoner;
+
+import org.semanticweb.owlapi.reasoner.OWLReasonerConfiguration;
+import org.semanticweb.owlapi.reasoner.ReasonerInterruptedException;
+import org.semanticweb.owlapi.reasoner.ReasonerProgressMonitor;
+import org.semanticweb.owlapi.reasoner.TimeOutException;
+
+/**
+ * A long running task of a reasoner, which reports its progress to the
+ * {@link ReasonerProgressMonitor} of the reasoner configuration and enforces
+ * the configured time out as well as cooperative interruption.
+ *
+ * The task is checked in {@link #step()} and {@link #check()}, so the
+ * interrupt only takes effect at these points. The deadline is fixed at
+ * construction, {@link #check()} can be called after the task has been
+ * stopped to account for work done outside of the task.
+ */
+class ReasonerTask {
+
+	private static final int REPORT_INTERVAL = 1024;
+
+	private final String name;
+	private final ReasonerProgressMonitor monitor;
+	private final long deadline;
+	private final long total;
+	private long done = 0;
+	private volatile boolean interrupted = false;
+
+	/**
+	 * @param name
+	 * @param configuration
+	 * @param total number of steps or 0, if unknown
+	 */
+	ReasonerTask(String name, OWLReasonerConfiguration configuration, long total) {
+		this.name = name;
+		this.monitor = configuration.getProgressMonitor();
+		this.total = total;
+		long timeOut = configuration.getTimeOut();
+		long now = System.currentTimeMillis();
+		if (timeOut <= 0 || timeOut >= Long.MAX_VALUE - now) {
+			deadline = Long.MAX_VALUE;
+		}
+		else {
+			deadline = now + timeOut;
+		}
+	}
+
+	void start() {
+		monitor.reasonerTaskStarted(name);
+		if (total <= 0) {
+			monitor.reasonerTaskBusy();
+		}
+	}
+
+	/**
+	 * Finish one step, report the progress and check for interruption and time out.
+	 *
+	 * @throws ReasonerInterruptedException
+	 * @throws TimeOutException
+	 */
+	void step() throws ReasonerInterruptedException, TimeOutException {
+		done += 1;
+		if (total > 0 && (done % REPORT_INTERVAL == 0 || done == total)) {
+			monitor.reasonerTaskProgressChanged((int) Math.min(done, Integer.MAX_VALUE),
+					(int) Math.min(total, Integer.MAX_VALUE));
+		}
+		check();
+	}
+
+	/**
+	 * @throws ReasonerInterruptedException if the task has been interrupted
+	 * @throws TimeOutException if the configured time out has been exceeded
+	 */
+	void check() throws ReasonerInterruptedException, TimeOutException {
+		if (interrupted) {
+			throw new ReasonerInterruptedException("Interrupted: "+name);
+		}
+		if (deadline != Long.MAX_VALUE && System.currentTimeMillis() > deadline) {
+			throw new TimeOutException();
+		}
+	}
+
+	void stop() {
+		monitor.reasonerTaskStopped();
+	}
+
+	void interrupt() {
+		interrupted = true;
+	}
+}
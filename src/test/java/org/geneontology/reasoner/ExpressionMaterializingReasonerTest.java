@@ -3,6 +3,13 @@ package org.geneontology.reasoner;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.junit.After;
@@ -10,12 +17,20 @@ import org.junit.Before;
 import org.junit.Test;
 import org.semanticweb.elk.owlapi.ElkReasonerFactory;
 import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAxiom;
 import org.semanticweb.owlapi.model.OWLClass;
 import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLDataFactory;
 import org.semanticweb.owlapi.model.OWLObjectProperty;
+import org.semanticweb.owlapi.model.OWLObjectSomeValuesFrom;
 import org.semanticweb.owlapi.model.OWLOntology;
 import org.semanticweb.owlapi.model.OWLOntologyManager;
 import org.semanticweb.owlapi.reasoner.OWLReasonerFactory;
+import org.semanticweb.owlapi.reasoner.ReasonerInterruptedException;
+import org.semanticweb.owlapi.reasoner.ReasonerProgressMonitor;
+import org.semanticweb.owlapi.reasoner.SimpleConfiguration;
+import org.semanticweb.owlapi.reasoner.TimeOutException;
 
 public class ExpressionMaterializingReasonerTest {
 
@@ -75,18 +90,533 @@ public class ExpressionMaterializingReasonerTest {
 			}
 		}
 	}
-	//@Test
+	@Test
 	public void test2() throws Exception {
-		// step 1: materialize expressions, defaults to all
+		ReasonerComparison comparison = new ReasonerComparison(ontology, ontology.getObjectPropertiesInSignature());
+		comparison.addBackend("elk", new ElkReasonerFactory());
+		comparison.addBackend("hermit", new org.semanticweb.HermiT.ReasonerFactory());
+		// direct results differ, as the additional HermiT inferences change the hierarchy
+		comparison.setDirect(false);
+		ReasonerComparison.Report report = comparison.run();
+		System.out.println(report);
+		
+		// we expect Elk *not* to entail overlaps based on inverse axioms (neuron overlaps neuron),
+		// but everything Elk infers must also be inferred by HermiT
+		for (ReasonerComparison.BackendDiff diff : report.getDiffs()) {
+			for (ReasonerComparison.ClassDiff classDiff : diff.getSuperClassExpressionDiffs()) {
+				assertTrue("Check that the inferences are the same for cls: "+classDiff, classDiff.getOnlyInBaseline().isEmpty());
+			}
+			for (ReasonerComparison.ClassDiff classDiff : diff.getSuperClassesOverDiffs()) {
+				assertTrue("Check that the inferences are the same for cls: "+classDiff, classDiff.getOnlyInBaseline().isEmpty());
+			}
+		}
+		for (ReasonerComparison.BackendResult result : report.getResults()) {
+			assertEquals(ReasonerComparison.Phase.values().length, result.getMetrics().size());
+		}
+	}
+	
+	@Test
+	public void testElSaturation() throws Exception {
+		for (boolean isDirect : new boolean[]{true, false}) {
+			ReasonerComparison comparison = new ReasonerComparison(ontology, ontology.getObjectPropertiesInSignature());
+			comparison.addBackend("elk", new ElkReasonerFactory());
+			comparison.addBackend("el-saturation", new ElSaturationReasonerFactory(new ElkReasonerFactory()));
+			comparison.setDirect(isDirect);
+			ReasonerComparison.Report report = comparison.run();
+			for (ReasonerComparison.BackendDiff diff : report.getDiffs()) {
+				assertTrue("Expected same results as Elk for direct="+isDirect+"\n"+report, diff.isEmpty());
+			}
+		}
+		
+		// anonymous queries, as used for draft definitions
+		OWLDataFactory f = ontology.getOWLOntologyManager().getOWLDataFactory();
+		OWLClass neuron = f.getOWLClass(IRI.create("http://x.org/neuron"));
+		Set<OWLObjectProperty> properties = ontology.getObjectPropertiesInSignature();
+		List<OWLClassExpression> queries = new ArrayList<OWLClassExpression>();
+		for (OWLClass cls : ontology.getClassesInSignature()) {
+			queries.add(f.getOWLObjectIntersectionOf(neuron, cls));
+			for (OWLObjectProperty p : properties) {
+				queries.add(f.getOWLObjectSomeValuesFrom(p, cls));
+				queries.add(f.getOWLObjectIntersectionOf(neuron, f.getOWLObjectSomeValuesFrom(p, cls)));
+			}
+		}
+		assertSameAnswers(ontology, queries);
+	}
+	
+	@Test
+	public void testElSaturationExcludesEquivalentQueries() throws Exception {
+		OWLOntologyManager m = OWLManager.createOWLOntologyManager();
+		OWLDataFactory f = m.getOWLDataFactory();
+		OWLOntology o = m.createOntology(IRI.create("http://x.org/test"));
+		OWLClass a = f.getOWLClass(IRI.create("http://x.org/test#A"));
+		OWLClass b = f.getOWLClass(IRI.create("http://x.org/test#B"));
+		OWLClass c = f.getOWLClass(IRI.create("http://x.org/test#C"));
+		OWLClass d = f.getOWLClass(IRI.create("http://x.org/test#D"));
+		OWLClass y = f.getOWLClass(IRI.create("http://x.org/test#Y"));
+		OWLClass z = f.getOWLClass(IRI.create("http://x.org/test#Z"));
+		OWLObjectProperty p = f.getOWLObjectProperty(IRI.create("http://x.org/test#p"));
+		OWLClassExpression aAndB = f.getOWLObjectIntersectionOf(a, b);
+		OWLObjectSomeValuesFrom pSomeY = f.getOWLObjectSomeValuesFrom(p, y);
+		m.addAxiom(o, f.getOWLEquivalentClassesAxiom(c, aAndB));
+		m.addAxiom(o, f.getOWLEquivalentClassesAxiom(d, pSomeY));
+		m.addAxiom(o, f.getOWLSubClassOfAxiom(y, z));
+		
+		ElSaturationReasoner reasoner = new ElSaturationReasonerFactory(new ElkReasonerFactory()).createReasoner(o);
+		try {
+			reasoner.materializeExpressions(Collections.singleton(p));
+			assertEquals(new HashSet<OWLClassExpression>(Arrays.asList(a, b)), reasoner.getSuperClassExpressions(aAndB, true));
+			assertEquals(Collections.singleton(f.getOWLObjectSomeValuesFrom(p, z)), reasoner.getSuperClassExpressions(pSomeY, true));
+			assertEquals(Collections.singleton(z), reasoner.getSuperClassesOver(pSomeY, p, true));
+		}
+		finally {
+			reasoner.dispose();
+		}
+		assertSameAnswers(o, Arrays.asList(aAndB, pSomeY, f.getOWLObjectIntersectionOf(c, pSomeY)));
+	}
+
+	@Test
+	public void testElSaturationAnatomySlim() throws Exception {
+		OWLOntologyManager m = OWLManager.createOWLOntologyManager();
+		OWLOntology slim = m.loadOntologyFromOntologyDocument(new File("src/test/resources","anatomy-slim.ofn"));
+		for (boolean isDirect : new boolean[]{true, false}) {
+			ReasonerComparison comparison = new ReasonerComparison(slim, slim.getObjectPropertiesInSignature());
+			comparison.addBackend("elk", new ElkReasonerFactory());
+			comparison.addBackend("el-saturation", new ElSaturationReasonerFactory(new ElkReasonerFactory()));
+			comparison.setDirect(isDirect);
+			ReasonerComparison.Report report = comparison.run();
+			for (ReasonerComparison.BackendDiff diff : report.getDiffs()) {
+				assertTrue("Expected same results as Elk for direct="+isDirect+"\n"+report, diff.isEmpty());
+			}
+		}
+
+		// draft definitions in the style of the genus-differentia definitions
+		OWLDataFactory f = m.getOWLDataFactory();
+		OWLClass cell = f.getOWLClass(IRI.create("http://x.org/slim#cell"));
+		OWLClass process = f.getOWLClass(IRI.create("http://x.org/slim#biological_process"));
+		OWLObjectProperty partOf = f.getOWLObjectProperty(IRI.create("http://x.org/slim#part_of"));
+		OWLObjectProperty occursIn = f.getOWLObjectProperty(IRI.create("http://x.org/slim#occurs_in"));
+		List<OWLClassExpression> queries = new ArrayList<OWLClassExpression>();
+		for (OWLClass cls : slim.getClassesInSignature()) {
+			queries.add(f.getOWLObjectIntersectionOf(cell, f.getOWLObjectSomeValuesFrom(partOf, cls)));
+			queries.add(f.getOWLObjectIntersectionOf(process, f.getOWLObjectSomeValuesFrom(occursIn, cls)));
+		}
+		ElSaturationReasoner reasoner = new ElSaturationReasonerFactory(new ElkReasonerFactory()).createReasoner(slim);
+		try {
+			assertFalse(reasoner.isFallbackToWrappedReasoner());
+		}
+		finally {
+			reasoner.dispose();
+		}
+		assertSameAnswers(slim, queries);
+	}
+
+	@Test
+	public void testElSaturationFallback() throws Exception {
+		OWLOntologyManager m = OWLManager.createOWLOntologyManager();
+		OWLOntology slim = m.loadOntologyFromOntologyDocument(new File("src/test/resources","anatomy-slim.ofn"));
+		OWLDataFactory f = m.getOWLDataFactory();
+		OWLClass neuron = f.getOWLClass(IRI.create("http://x.org/slim#neuron"));
+		OWLClass process = f.getOWLClass(IRI.create("http://x.org/slim#biological_process"));
+		OWLObjectProperty capableOf = f.getOWLObjectProperty(IRI.create("http://x.org/slim#capable_of"));
+		// ranges are supported by Elk, but not by the saturation
+		m.addAxiom(slim, f.getOWLObjectPropertyRangeAxiom(capableOf, process));
+
+		ElSaturationReasoner reasoner = new ElSaturationReasonerFactory(new ElkReasonerFactory()).createReasoner(slim);
+		try {
+			assertTrue(reasoner.isFallbackToWrappedReasoner());
+			assertEquals(1, reasoner.getIgnoredAxiomCount());
+			reasoner.materializeExpressions(Collections.singleton(capableOf));
+			assertTrue(reasoner.getSuperClassesOver(neuron, capableOf, false).contains(process));
+		}
+		finally {
+			reasoner.dispose();
+		}
+		assertSameAnswers(slim, Arrays.<OWLClassExpression>asList(neuron,
+				f.getOWLObjectSomeValuesFrom(capableOf, neuron),
+				f.getOWLObjectIntersectionOf(neuron, f.getOWLObjectSomeValuesFrom(capableOf, process))));
+	}
+
+	/**
+	 * Compare the answers of the EL saturation with the materialization using Elk.
+	 */
+	private static void assertSameAnswers(OWLOntology o, List<OWLClassExpression> queries) {
+		Set<OWLObjectProperty> properties = o.getObjectPropertiesInSignature();
+		ExpressionMaterializingReasoner elk = new ExpressionMaterializingReasonerFactory(new ElkReasonerFactory()).createReasoner(o);
+		ElSaturationReasoner saturation = new ElSaturationReasonerFactory(new ElkReasonerFactory()).createReasoner(o);
+		try {
+			elk.materializeExpressions(properties);
+			saturation.materializeExpressions(properties);
+			for (boolean isDirect : new boolean[]{true, false}) {
+				for (OWLClassExpression ce : queries) {
+					assertEquals(ce+" direct="+isDirect, elk.getSuperClassExpressions(ce, isDirect),
+							saturation.getSuperClassExpressions(ce, isDirect));
+					for (OWLObjectProperty p : properties) {
+						assertEquals(ce+" "+p+" direct="+isDirect, elk.getSuperClassesOver(ce, p, isDirect),
+								saturation.getSuperClassesOver(ce, p, isDirect));
+					}
+				}
+			}
+		}
+		finally {
+			elk.dispose();
+			saturation.dispose();
+		}
+	}
+	
+	@Test
+	public void testInterruptMaterialization() throws Exception {
+		final List<String> tasks = new ArrayList<String>();
+		final ExpressionMaterializingReasoner[] reasoner = new ExpressionMaterializingReasoner[1];
+		ReasonerProgressMonitor monitor = new ReasonerProgressMonitor() {
+			
+			private String current = null;
+			private boolean interrupted = false;
+			
+			@Override
+			public void reasonerTaskStarted(String taskName) {
+				current = taskName;
+				tasks.add(taskName);
+			}
+			
+			@Override
+			public void reasonerTaskStopped() {
+				current = null;
+			}
+			
+			@Override
+			public void reasonerTaskProgressChanged(int value, int max) {
+				// interrupt the materialization, once it is done with generating the axioms
+				if (interrupted == false && "Materializing expressions".equals(current) && value == max) {
+					interrupted = true;
+					reasoner[0].interrupt();
+				}
+			}
+			
+			@Override
+			public void reasonerTaskBusy() {
+			}
+		};
+		reasoner[0] = elkFactory.createReasoner(ontology, new SimpleConfiguration(monitor));
+		try {
+			Set<OWLObjectProperty> properties = ontology.getObjectPropertiesInSignature();
+			try {
+				reasoner[0].materializeExpressions(properties);
+				fail("Expected an interrupt");
+			} catch (ReasonerInterruptedException e) {
+				// expected
+			}
+			assertTrue(tasks.contains("Materializing expressions"));
+			// the last property has not been materialized
+			assertTrue(reasoner[0].cachedProperties.size() < properties.size());
+			
+			// a new call finishes the materialization with the same results
+			reasoner[0].materializeExpressions(properties);
+			elkReasoner.materializeExpressions(properties);
+			for(OWLClass cls : ontology.getClassesInSignature()) {
+				for (OWLObjectProperty p : properties) {
+					assertEquals(elkReasoner.getSuperClassesOver(cls, p, true), reasoner[0].getSuperClassesOver(cls, p, true));
+				}
+			}
+		}
+		finally {
+			reasoner[0].dispose();
+		}
+	}
+
+	@Test
+	public void testTimeOutMaterialization() throws Exception {
+		final long timeOut = 200;
+		ReasonerProgressMonitor monitor = new ReasonerProgressMonitor() {
+
+			private String current = null;
+
+			@Override
+			public void reasonerTaskStarted(String taskName) {
+				current = taskName;
+			}
+
+			@Override
+			public void reasonerTaskStopped() {
+				current = null;
+			}
+
+			@Override
+			public void reasonerTaskProgressChanged(int value, int max) {
+				// exceed the time out in the last step of the materialization
+				if ("Materializing expressions".equals(current) && value == max) {
+					try {
+						Thread.sleep(2 * timeOut);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+
+			@Override
+			public void reasonerTaskBusy() {
+			}
+		};
+		ExpressionMaterializingReasoner reasoner = elkFactory.createNonBufferingReasoner(ontology, new SimpleConfiguration(monitor, timeOut));
+		try {
+			final List<InferenceDelta> deltas = new ArrayList<InferenceDelta>();
+			reasoner.addInferenceChangeListener(new InferenceChangeListener() {
+
+				@Override
+				public void inferencesChanged(InferenceDelta delta) {
+					deltas.add(delta);
+				}
+			});
+			List<OWLObjectProperty> properties = new ArrayList<OWLObjectProperty>(ontology.getObjectPropertiesInSignature());
+			try {
+				reasoner.materializeExpressions(properties);
+				fail("Expected a time out");
+			} catch (TimeOutException e) {
+				// expected
+			}
+			// the completed properties are flushed and reported to the listeners
+			assertEquals(properties.size() - 1, reasoner.cachedProperties.size());
+			assertEquals(1, deltas.size());
+			elkReasoner.materializeExpressions(properties);
+			for (OWLClass cls : ontology.getClassesInSignature()) {
+				for (OWLObjectProperty p : reasoner.cachedProperties) {
+					assertEquals(elkReasoner.getSuperClassesOver(cls, p, true), reasoner.getSuperClassesOver(cls, p, true));
+				}
+			}
+		}
+		finally {
+			reasoner.dispose();
+		}
+	}
+
+	@Test
+	public void testBitmapQueries() throws Exception {
+		OWLDataFactory f = ontology.getOWLOntologyManager().getOWLDataFactory();
+		OWLObjectProperty partOf = f.getOWLObjectProperty(IRI.create("http://x.org/part-of"));
+		OWLObjectProperty inTaxon = f.getOWLObjectProperty(IRI.create("http://x.org/in-taxon"));
+		OWLClass cerebellum = f.getOWLClass(IRI.create("http://x.org/cerebellum"));
+		OWLClass vertebrate = f.getOWLClass(IRI.create("http://x.org/vertebrate"));
+		List<OWLObjectSomeValuesFrom> query = Arrays.asList(
+				f.getOWLObjectSomeValuesFrom(partOf, cerebellum),
+				f.getOWLObjectSomeValuesFrom(inTaxon, vertebrate));
+		
+		ExpressionMaterializingReasoner elReasoner = new ElSaturationReasonerFactory(new ElkReasonerFactory()).createReasoner(ontology);
+		try {
+			for (ExpressionMaterializingReasoner r : Arrays.asList(elkReasoner, elReasoner)) {
+				Set<OWLClass> all = new HashSet<OWLClass>();
+				Set<OWLClass> any = new HashSet<OWLClass>();
+				for (OWLClass cls : ontology.getClassesInSignature()) {
+					boolean inPartOf = r.getSuperClassesOver(cls, partOf, false).contains(cerebellum);
+					boolean inTaxonVertebrate = r.getSuperClassesOver(cls, inTaxon, false).contains(vertebrate);
+					if (inPartOf && inTaxonVertebrate) {
+						all.add(cls);
+					}
+					if (inPartOf || inTaxonVertebrate) {
+						any.add(cls);
+					}
+				}
+				// Purkinje-cell-type-1 is part of the cerebellum and in taxon vertebrate
+				assertTrue(all.contains(f.getOWLClass(IRI.create("http://x.org/Purkinje-cell-type-1"))));
+				assertEquals(all, r.getSubClassesOfAll(query));
+				assertEquals(any, r.getSubClassesOfAny(query));
+				assertEquals(all.size(), r.countSubClassesOfAll(query));
+				assertEquals(any.size(), r.countSubClassesOfAny(query));
+			}
+
+			// changes of the root ontology invalidate the index
+			Map<ExpressionMaterializingReasoner, Integer> allCounts = new HashMap<ExpressionMaterializingReasoner, Integer>();
+			for (ExpressionMaterializingReasoner r : Arrays.asList(elkReasoner, elReasoner)) {
+				allCounts.put(r, r.countSubClassesOfAll(query));
+			}
+			OWLClass newCell = f.getOWLClass(IRI.create("http://x.org/new-cell"));
+			OWLOntologyManager m = ontology.getOWLOntologyManager();
+			m.addAxiom(ontology, f.getOWLSubClassOfAxiom(newCell, f.getOWLObjectSomeValuesFrom(partOf, cerebellum)));
+			m.addAxiom(ontology, f.getOWLSubClassOfAxiom(newCell, f.getOWLObjectSomeValuesFrom(inTaxon, vertebrate)));
+			for (ExpressionMaterializingReasoner r : Arrays.asList(elkReasoner, elReasoner)) {
+				r.flush();
+				assertTrue(r.getSubClassesOfAll(query).contains(newCell));
+				assertEquals(allCounts.get(r).intValue() + 1, r.countSubClassesOfAll(query));
+			}
+		}
+		finally {
+			elReasoner.dispose();
+		}
+	}
+	
+	@Test
+	public void testInferenceDelta() throws Exception {
+		OWLOntologyManager m = ontology.getOWLOntologyManager();
+		OWLDataFactory f = m.getOWLDataFactory();
+		OWLObjectProperty partOf = f.getOWLObjectProperty(IRI.create("http://x.org/part-of"));
+		OWLClass kenyonCell = f.getOWLClass(IRI.create("http://x.org/kenyon-cell"));
+		OWLClass cerebellum = f.getOWLClass(IRI.create("http://x.org/cerebellum"));
+		
 		elkReasoner.materializeExpressions();
-		hermitReasoner.materializeExpressions();
+		final List<InferenceDelta> deltas = new ArrayList<InferenceDelta>();
+		elkReasoner.addInferenceChangeListener(new InferenceChangeListener() {
+			
+			@Override
+			public void inferencesChanged(InferenceDelta delta) {
+				deltas.add(delta);
+			}
+		});
+		// no changes, no notification
+		elkReasoner.flush();
+		assertTrue(deltas.isEmpty());
 		
-		// step 2: check inferences for all classes (or subset)
-		for(OWLClass cls : ontology.getClassesInSignature()) {
-			Set<OWLClassExpression> elkSuperClassExpressions = elkReasoner.getSuperClassExpressions(cls, true);
-			Set<OWLClassExpression> hermitSuperClassExpressions = hermitReasoner.getSuperClassExpressions(cls, true);
-			// we expect Elk *not* to entail overlaps based on inverse axioms (neuron overlaps neuron)
-			//assertEquals("Check that the inferences are the same for cls: "+cls.getIRI(), hermitSuperClassExpressions, elkSuperClassExpressions);
+		OWLAxiom axiom = f.getOWLSubClassOfAxiom(kenyonCell, f.getOWLObjectSomeValuesFrom(partOf, cerebellum));
+		m.addAxiom(ontology, axiom);
+		elkReasoner.flush();
+		assertEquals(1, deltas.size());
+		InferenceDelta added = deltas.get(0);
+		assertTrue(added.getAddedEdges().contains(new InferenceDelta.Edge(kenyonCell, partOf, cerebellum, false)));
+		assertTrue(added.getRemovedEdges().isEmpty());
+		assertTrue(added.getAddedAncestors().get(kenyonCell).contains(f.getOWLObjectSomeValuesFrom(partOf, cerebellum)));
+		
+		m.removeAxiom(ontology, axiom);
+		elkReasoner.flush();
+		assertEquals(2, deltas.size());
+		InferenceDelta removed = deltas.get(1);
+		assertEquals(added.getAddedEdges(), removed.getRemovedEdges());
+		assertEquals(added.getAddedAncestors(), removed.getRemovedAncestors());
+		assertTrue(removed.getAddedEdges().isEmpty());
+	}
+
+	@Test
+	public void testInferenceDeltaNonBuffering() throws Exception {
+		OWLOntologyManager m = ontology.getOWLOntologyManager();
+		OWLDataFactory f = m.getOWLDataFactory();
+		OWLObjectProperty partOf = f.getOWLObjectProperty(IRI.create("http://x.org/part-of"));
+		OWLClass kenyonCell = f.getOWLClass(IRI.create("http://x.org/kenyon-cell"));
+		OWLClass cerebellum = f.getOWLClass(IRI.create("http://x.org/cerebellum"));
+
+		ExpressionMaterializingReasoner reasoner = elkFactory.createNonBufferingReasoner(ontology);
+		try {
+			reasoner.materializeExpressions(Collections.singleton(partOf));
+			final List<InferenceDelta> deltas = new ArrayList<InferenceDelta>();
+			reasoner.addInferenceChangeListener(new InferenceChangeListener() {
+
+				@Override
+				public void inferencesChanged(InferenceDelta delta) {
+					deltas.add(delta);
+				}
+			});
+			reasoner.flush();
+			assertTrue(deltas.isEmpty());
+
+			// the change is detected, whether or not the wrapped reasoner has pending changes
+			m.addAxiom(ontology, f.getOWLSubClassOfAxiom(kenyonCell, f.getOWLObjectSomeValuesFrom(partOf, cerebellum)));
+			reasoner.flush();
+			assertEquals(1, deltas.size());
+			assertTrue(deltas.get(0).getAddedEdges().contains(new InferenceDelta.Edge(kenyonCell, partOf, cerebellum, false)));
+		}
+		finally {
+			reasoner.dispose();
+		}
+	}
+	
+	@Test
+	public void testBatchQueries() throws Exception {
+		OWLDataFactory f = ontology.getOWLOntologyManager().getOWLDataFactory();
+		OWLClass neuron = f.getOWLClass(IRI.create("http://x.org/neuron"));
+		Set<OWLObjectProperty> properties = ontology.getObjectPropertiesInSignature();
+		elkReasoner.materializeExpressions(properties);
+		
+		// draft definitions: neuron and (p some C)
+		List<OWLClassExpression> queries = new ArrayList<OWLClassExpression>();
+		for (OWLClass cls : ontology.getClassesInSignature()) {
+			for (OWLObjectProperty p : properties) {
+				queries.add(f.getOWLObjectIntersectionOf(neuron, f.getOWLObjectSomeValuesFrom(p, cls)));
+			}
+			queries.add(cls);
+		}
+		OWLOntology expanded = elkReasoner.getWrappedReasoner().getRootOntology();
+		int axiomCount = expanded.getAxiomCount();
+		for (boolean isDirect : new boolean[]{true, false}) {
+			Map<OWLClassExpression, Set<OWLClassExpression>> batch = elkReasoner.getSuperClassExpressions(queries, isDirect);
+			assertEquals(axiomCount, expanded.getAxiomCount());
+			for (OWLClassExpression ce : queries) {
+				assertEquals(ce.toString(), elkReasoner.getSuperClassExpressions(ce, isDirect), batch.get(ce));
+			}
+			for (OWLObjectProperty p : properties) {
+				Map<OWLClassExpression, Set<OWLClass>> batchOver = elkReasoner.getSuperClassesOver(queries, p, isDirect);
+				assertEquals(axiomCount, expanded.getAxiomCount());
+				for (OWLClassExpression ce : queries) {
+					assertEquals(ce.toString(), elkReasoner.getSuperClassesOver(ce, p, isDirect), batchOver.get(ce));
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testSharedReasoner() throws Exception {
+		Set<OWLObjectProperty> properties = ontology.getObjectPropertiesInSignature();
+		ExpressionMaterializingReasoner r1 = elkFactory.createSharedReasoner(ontology, properties);
+		ExpressionMaterializingReasoner r2 = elkFactory.createSharedReasoner(ontology, properties);
+		try {
+			assertSame(r1.getWrappedReasoner(), r2.getWrappedReasoner());
+			elkReasoner.materializeExpressions(properties);
+			for(OWLClass cls : ontology.getClassesInSignature()) {
+				assertEquals(elkReasoner.getSuperClassExpressions(cls, true), r1.getSuperClassExpressions(cls, true));
+				for (OWLObjectProperty p : properties) {
+					assertEquals(elkReasoner.getSuperClassesOver(cls, p, true), r2.getSuperClassesOver(cls, p, true));
+				}
+			}
+			
+			// the shared state survives the disposal of one of the reasoners
+			r1.dispose();
+			ExpressionMaterializingReasoner r3 = elkFactory.createSharedReasoner(ontology, properties);
+			assertSame(r2.getWrappedReasoner(), r3.getWrappedReasoner());
+			r3.dispose();
+			
+			// disposing a reasoner twice must not release the shared state twice
+			r1.dispose();
+			ExpressionMaterializingReasoner r5 = elkFactory.createSharedReasoner(ontology, properties);
+			assertSame(r2.getWrappedReasoner(), r5.getWrappedReasoner());
+			r5.dispose();
+			for(OWLClass cls : ontology.getClassesInSignature()) {
+				assertEquals(elkReasoner.getSuperClassExpressions(cls, true), r2.getSuperClassExpressions(cls, true));
+			}
+		}
+		finally {
+			r2.dispose();
+		}
+		// all reasoners are disposed, a new state is required
+		ExpressionMaterializingReasoner r4 = elkFactory.createSharedReasoner(ontology, properties);
+		try {
+			assertNotSame(r2.getWrappedReasoner(), r4.getWrappedReasoner());
+		}
+		finally {
+			r4.dispose();
+		}
+	}
+	
+	@Test(expected=IllegalStateException.class)
+	public void testSharedReasonerIsImmutable() throws Exception {
+		Set<OWLObjectProperty> properties = ontology.getObjectPropertiesInSignature();
+		OWLObjectProperty p = properties.iterator().next();
+		ExpressionMaterializingReasoner r = elkFactory.createSharedReasoner(ontology, Collections.singleton(p));
+		try {
+			for (OWLObjectProperty other : properties) {
+				r.materializeExpressions(other);
+			}
+		}
+		finally {
+			r.dispose();
+		}
+	}
+	
+	@Test(expected=IllegalStateException.class)
+	public void testSharedReasonerRejectsBatchQueries() throws Exception {
+		OWLDataFactory f = ontology.getOWLOntologyManager().getOWLDataFactory();
+		Set<OWLObjectProperty> properties = ontology.getObjectPropertiesInSignature();
+		OWLObjectProperty p = properties.iterator().next();
+		OWLClass neuron = f.getOWLClass(IRI.create("http://x.org/neuron"));
+		ExpressionMaterializingReasoner r = elkFactory.createSharedReasoner(ontology, properties);
+		try {
+			r.getSuperClassExpressions(Collections.singleton(f.getOWLObjectSomeValuesFrom(p, neuron)), true);
+		}
+		finally {
+			r.dispose();
 		}
 	}
 }